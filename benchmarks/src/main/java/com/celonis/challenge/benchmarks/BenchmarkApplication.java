@@ -0,0 +1,43 @@
+package com.celonis.challenge.benchmarks;
+
+import com.celonis.challenge.ChallengeApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Boots the application on a random port against a private in-memory H2 database, with rate limiting off so
+ * the service itself is measured. Any default can be overridden by the given properties.
+ */
+final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+    }
+
+    static ConfigurableApplicationContext start(String name, String... properties) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        put(settings, "server.port=0");
+        put(settings, "spring.datasource.url=jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        put(settings, "spring.main.banner-mode=off");
+        put(settings, "logging.level.root=WARN");
+        put(settings, "challenge.cleanup.initial-delay-ms=86400000");
+        put(settings, "challenge.rate-limit.create.capacity=0");
+        put(settings, "challenge.rate-limit.execute.capacity=0");
+        put(settings, "challenge.rate-limit.read.capacity=0");
+        for (String property : properties) {
+            put(settings, property);
+        }
+        // passed as command line arguments so they take precedence over application.properties
+        String[] args = settings.entrySet().stream()
+                .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new);
+        return new SpringApplicationBuilder(ChallengeApplication.class).run(args);
+    }
+
+    private static void put(Map<String, String> settings, String property) {
+        int eq = property.indexOf('=');
+        settings.put(property.substring(0, eq), property.substring(eq + 1));
+    }
+}
@@ -0,0 +1,352 @@
+package com.celonis.challenge.benchmarks;
+
+import com.celonis.challenge.services.TaskService;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Cancels project generations half way and checks that they stop within one chunk.
+ * <p>
+ * The template archive is handed out through a throttled stream counting the bytes read from it, so a
+ * generation takes seconds. A stored and a streamed generation are each canceled once a few MiB went through
+ * and then watched for a while. Neither may read more than one copy chunk from the template after the cancel
+ * returned; the stored one must leave neither its partial upload nor a segment behind, and the streamed
+ * response must end before the archive is complete. Both tasks must end CANCELED with their cancellation
+ * token gone. The program exits with a non-zero status if any check fails.
+ * <p>
+ * Usage: {@code CancelTest [archive-mib] [mib-per-second]}
+ */
+public final class CancelTest {
+
+    private static final String AUTH_HEADER = "Celonis-Auth";
+
+    private static final String AUTH_VALUE = "totally_secret";
+
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*\"([^\"]+)\"");
+
+    private static final Pattern STATUS = Pattern.compile("\"status\"\\s*:\\s*\"([^\"]+)\"");
+
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    /**
+     * Largest single read of the throttled template; a read in progress when the cancel lands completes.
+     */
+    private static final int READ_BYTES = 16 * 1024;
+
+    private static final long CANCEL_AFTER_BYTES = 4L * 1024 * 1024;
+
+    private static final long QUIET_MILLIS = 1000;
+
+    private static final long TIMEOUT_MILLIS = 60_000;
+
+    private final AtomicLong templateBytes = new AtomicLong();
+
+    private final List<String> failures = new ArrayList<>();
+
+    private long archiveBytes;
+
+    private long bytesPerSecond;
+
+    private Path resultsDir;
+
+    private ConfigurableApplicationContext context;
+
+    private HttpClient client;
+
+    private URI base;
+
+    public static void main(String[] args) throws Exception {
+        int archiveMiB = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int mibPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        Path dir = Files.createTempDirectory("cancel");
+        CancelTest test = new CancelTest();
+        test.bytesPerSecond = mibPerSecond * 1024L * 1024;
+        test.resultsDir = dir.resolve("results");
+        Path archive = writeArchive(dir.resolve("challenge.zip"), archiveMiB);
+        test.archiveBytes = Files.size(archive);
+        // project generation reads challenge.zip from the context class path, hand out the throttled one
+        URL template = test.throttled(archive);
+        Thread.currentThread().setContextClassLoader(new ClassLoader(CancelTest.class.getClassLoader()) {
+            @Override
+            public URL getResource(String name) {
+                return "challenge.zip".equals(name) ? template : super.getResource(name);
+            }
+        });
+
+        boolean passed;
+        test.context = BenchmarkApplication.start("cancel",
+                "challenge.results.copy-chunk-bytes=" + CHUNK_BYTES,
+                "challenge.results.dir=" + test.resultsDir,
+                "challenge.work.poll-interval-ms=100");
+        try {
+            int port = ((WebServerApplicationContext) test.context).getWebServer().getPort();
+            test.base = URI.create("http://localhost:" + port + "/api/tasks/");
+            test.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            passed = test.run();
+        } finally {
+            test.context.close();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        cancelStored();
+        cancelStreamed();
+        failures.forEach(failure -> System.out.println("FAIL " + failure));
+        System.out.println(failures.isEmpty() ? "PASSED" : "FAILED with " + failures.size() + " violations");
+        return failures.isEmpty();
+    }
+
+    /**
+     * Executes a generation into the result store and cancels it while the template is being copied.
+     */
+    private void cancelStored() throws Exception {
+        String id = createTask("cancel-stored");
+        long start = templateBytes.get();
+        send("POST", id + "/execute");
+        awaitTemplateBytes(start + CANCEL_AFTER_BYTES);
+        long canceled = cancel(id);
+        Thread.sleep(QUIET_MILLIS);
+        long after = templateBytes.get() - canceled;
+        report("stored", canceled - start, after);
+
+        checkStopped("stored", id, after);
+        try (Stream<Path> files = Files.list(resultsDir)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith("upload-") || name.startsWith("segment-"))
+                    .forEach(name -> failures.add("stored generation left " + name + " behind"));
+        }
+    }
+
+    /**
+     * Generates an archive straight into a response and cancels it while the client is reading.
+     */
+    private void cancelStreamed() throws Exception {
+        String id = createTask("cancel-streamed");
+        long start = templateBytes.get();
+        HttpResponse<InputStream> response = client.send(request("POST", id + "/generate"),
+                HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            failures.add("streamed generation answered " + response.statusCode());
+            return;
+        }
+        AtomicLong received = new AtomicLong();
+        CompletableFuture<Void> body = CompletableFuture.runAsync(() -> drain(response.body(), received));
+        awaitTemplateBytes(start + CANCEL_AFTER_BYTES);
+        long canceled = cancel(id);
+        try {
+            body.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            failures.add("streamed response did not end after the cancel: " + e);
+        }
+        Thread.sleep(QUIET_MILLIS);
+        long after = templateBytes.get() - canceled;
+        report("streamed", canceled - start, after);
+
+        checkStopped("streamed", id, after);
+        if (received.get() >= archiveBytes) {
+            failures.add("streamed response carried " + received.get() + " bytes, the whole archive");
+        }
+    }
+
+    private void checkStopped(String mode, String id, long readAfterCancel) throws Exception {
+        if (readAfterCancel > CHUNK_BYTES + READ_BYTES) {
+            failures.add(mode + " generation read " + readAfterCancel + " template bytes after the cancel");
+        }
+        String status = match(STATUS, send("GET", id));
+        if (!"CANCELED".equals(status)) {
+            failures.add(mode + " generation ended " + status);
+        }
+        if (runningGenerations().containsKey(id)) {
+            failures.add(mode + " generation still has its cancellation token");
+        }
+    }
+
+    private void report(String mode, long beforeCancel, long afterCancel) {
+        System.out.printf("%s: %d template bytes read before the cancel, %d after (chunk %d)%n", mode,
+                beforeCancel, afterCancel, CHUNK_BYTES);
+    }
+
+    private long cancel(String id) throws Exception {
+        send("POST", id + "/cancel");
+        return templateBytes.get();
+    }
+
+    private void awaitTemplateBytes(long bytes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (templateBytes.get() < bytes) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Generation did not read " + bytes + " template bytes in time");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void drain(InputStream in, AtomicLong received) {
+        byte[] buffer = new byte[CHUNK_BYTES];
+        try (InputStream body = in) {
+            int read;
+            while ((read = body.read(buffer)) >= 0) {
+                received.addAndGet(read);
+            }
+        } catch (IOException e) {
+            // a truncated response may also end in a reset connection
+        }
+    }
+
+    private String createTask(String name) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(base)
+                .header(AUTH_HEADER, AUTH_VALUE)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"name\":\"" + name + "\",\"type\":\"PROJECT_GENERATION\"}"))
+                .build();
+        return match(ID, client.send(request, HttpResponse.BodyHandlers.ofString()).body());
+    }
+
+    private String send(String method, String path) throws Exception {
+        HttpResponse<String> response = client.send(request(method, path), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 300) {
+            throw new IllegalStateException(method + " " + path + " answered " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private HttpRequest request(String method, String path) {
+        return HttpRequest.newBuilder(base.resolve(path))
+                .header(AUTH_HEADER, AUTH_VALUE)
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+    }
+
+    private static String match(Pattern pattern, String body) {
+        Matcher matcher = pattern.matcher(body);
+        if (!matcher.find()) {
+            throw new IllegalStateException("Unexpected response " + body);
+        }
+        return matcher.group(1);
+    }
+
+    /**
+     * The tokens of the generations running on the node, which are private to the task service.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> runningGenerations() throws ReflectiveOperationException {
+        Object taskService = context.getBean(TaskService.class);
+        Object target = AopProxyUtils.getSingletonTarget(taskService);
+        Field field = TaskService.class.getDeclaredField("runningGenerations");
+        field.setAccessible(true);
+        return (Map<String, ?>) field.get(target != null ? target : taskService);
+    }
+
+    /**
+     * A zip with one uncompressed entry of random bytes, so both the raw copy and the streamed re-zip of the
+     * template move the whole size.
+     */
+    private static Path writeArchive(Path file, int mib) throws IOException {
+        Random random = new Random(42);
+        byte[] block = new byte[1024 * 1024];
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file))) {
+            out.setLevel(Deflater.NO_COMPRESSION);
+            out.putNextEntry(new ZipEntry("project.bin"));
+            for (int i = 0; i < mib; i++) {
+                random.nextBytes(block);
+                out.write(block);
+            }
+            out.closeEntry();
+        }
+        return file;
+    }
+
+    private URL throttled(Path archive) throws IOException {
+        return new URL(null, "throttled:challenge.zip", new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL url) {
+                return new URLConnection(url) {
+                    @Override
+                    public void connect() {
+                    }
+
+                    @Override
+                    public InputStream getInputStream() throws IOException {
+                        return new ThrottledInputStream(Files.newInputStream(archive));
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Hands out at most {@code bytesPerSecond} and counts every byte read.
+     */
+    private final class ThrottledInputStream extends FilterInputStream {
+
+        private final long started = System.nanoTime();
+
+        private long read;
+
+        ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, Math.min(len, READ_BYTES));
+            if (n > 0) {
+                read += n;
+                templateBytes.addAndGet(n);
+                long due = started + TimeUnit.SECONDS.toNanos(read) / bytesPerSecond;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while throttled", e);
+                    }
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return Math.max(0, read(new byte[(int) Math.min(n, READ_BYTES)]));
+        }
+    }
+}
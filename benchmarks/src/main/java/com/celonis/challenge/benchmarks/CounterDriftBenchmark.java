@@ -0,0 +1,93 @@
+package com.celonis.challenge.benchmarks;
+
+import com.celonis.challenge.services.CounterScheduler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds how many concurrent counters the timer wheel drives while keeping its tick drift under budget.
+ * <p>
+ * This is a plain program rather than a JMH benchmark since the quantity of interest is scheduling lag
+ * under a sustained load, not the cost of an operation. For every step the wheel runs the given number of
+ * counters for a while and the worst observed tick lag is reported as one JSON line.
+ * <p>
+ * Usage: {@code CounterDriftBenchmark [counters,...] [budget-ms] [window-seconds]}
+ */
+public final class CounterDriftBenchmark {
+
+    private static final long WARMUP_MILLIS = 2000;
+
+    private static final long SAMPLE_MILLIS = 5;
+
+    private CounterDriftBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int[] steps = args.length > 0
+                ? Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10_000, 50_000, 100_000, 200_000, 400_000, 800_000};
+        long budgetMillis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+        long windowMillis = TimeUnit.SECONDS.toMillis(args.length > 2 ? Long.parseLong(args[2]) : 10);
+
+        Path report = Paths.get("target", "counter-drift.json");
+        Files.createDirectories(report.getParent());
+        int supported = 0;
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(report))) {
+            for (int counters : steps) {
+                long maxLag = run(counters, windowMillis);
+                boolean withinBudget = maxLag <= budgetMillis;
+                if (withinBudget) {
+                    supported = Math.max(supported, counters);
+                }
+                String line = String.format("{\"counters\":%d,\"maxLagMs\":%d,\"budgetMs\":%d,\"withinBudget\":%b}",
+                        counters, maxLag, budgetMillis, withinBudget);
+                System.out.println(line);
+                out.println(line);
+            }
+        }
+        System.out.printf("Largest step within %d ms drift: %d counters (report: %s)%n",
+                budgetMillis, supported, report.toAbsolutePath());
+    }
+
+    private static long run(int counters, long windowMillis) throws InterruptedException {
+        CounterScheduler scheduler = new CounterScheduler(new SimpleMeterRegistry(), 50, 2);
+        scheduler.init();
+        // stands in for the progress registry the service updates on every advance
+        Map<String, Integer> progress = new ConcurrentHashMap<>();
+        CounterScheduler.Listener listener = new CounterScheduler.Listener() {
+            @Override
+            public void onAdvance(String taskId, int current) {
+                progress.put(taskId, current);
+            }
+
+            @Override
+            public void onComplete(String taskId, int current) {
+                progress.remove(taskId);
+            }
+        };
+        try {
+            for (int i = 0; i < counters; i++) {
+                scheduler.schedule("counter-" + i, 0, Integer.MAX_VALUE, listener);
+            }
+            Thread.sleep(WARMUP_MILLIS);
+            long maxLag = 0;
+            long end = System.currentTimeMillis() + windowMillis;
+            while (System.currentTimeMillis() < end) {
+                maxLag = Math.max(maxLag, scheduler.getLastTickLagMillis());
+                Thread.sleep(SAMPLE_MILLIS);
+            }
+            return maxLag;
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
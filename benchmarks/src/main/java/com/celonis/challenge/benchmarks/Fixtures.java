@@ -0,0 +1,52 @@
+package com.celonis.challenge.benchmarks;
+
+import com.celonis.challenge.model.ProjectGenerationTask;
+import com.celonis.challenge.model.TaskStatus;
+import com.celonis.challenge.model.TaskType;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static ProjectGenerationTask counterTask() {
+        ProjectGenerationTask task = new ProjectGenerationTask();
+        task.setId(UUID.randomUUID().toString());
+        task.setName("counter");
+        task.setType(TaskType.COUNTER);
+        task.setStatus(TaskStatus.RUNNING);
+        task.setCreationDate(new Date());
+        task.setStartedAt(new Date());
+        task.setX(10);
+        task.setY(110);
+        task.setCurrent(42);
+        task.setProgressPct(32f);
+        return task;
+    }
+
+    static ProjectGenerationTask generationTask() {
+        ProjectGenerationTask task = new ProjectGenerationTask();
+        task.setId(UUID.randomUUID().toString());
+        task.setName("project");
+        task.setType(TaskType.PROJECT_GENERATION);
+        task.setStatus(TaskStatus.COMPLETED);
+        task.setCreationDate(new Date());
+        task.setStartedAt(new Date());
+        task.setFinishedAt(new Date());
+        task.setStorageLocation("/tmp/challenge-results/ab/abcdef.zip");
+        return task;
+    }
+
+    static List<ProjectGenerationTask> tasks(int size) {
+        List<ProjectGenerationTask> tasks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tasks.add(i % 2 == 0 ? counterTask() : generationTask());
+        }
+        return tasks;
+    }
+}
@@ -0,0 +1,376 @@
+package com.celonis.challenge.benchmarks;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP load test of the task API, run against the application booted in-process on a random port.
+ * <p>
+ * Requests are issued by an open-model generator: they start at a constant arrival rate whether or not
+ * earlier requests have completed, and latency is measured from the intended start time, so a stalling
+ * server shows up in the percentiles instead of silently lowering the offered load. Each arrival rate of
+ * the run is a step with its own warmup; per step and operation the percentiles are printed, appended as a
+ * JSON line to {@code target/load-test.json} and the full HdrHistogram distribution is written to a
+ * {@code .hgrm} file.
+ * <p>
+ * Options are given as {@code --name=value}: {@code rates} (requests per second, comma separated),
+ * {@code duration} and {@code warmup} (seconds per step), {@code mix} (operation weights, e.g.
+ * {@code get:40,list:20}), {@code clients} (HTTP client threads), {@code max-in-flight} and
+ * {@code result-bytes}. Any option with a dot in its name is passed to the application as a property.
+ */
+public final class LoadTest {
+
+    private static final String AUTH_HEADER = "Celonis-Auth";
+
+    private static final String AUTH_VALUE = "totally_secret";
+
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*\"([^\"]+)\"");
+
+    private static final Pattern STATUS = Pattern.compile("\"status\"\\s*:\\s*\"([^\"]+)\"");
+
+    private static final int SEEDED_TASKS = 1000;
+
+    private static final int RESULT_TASKS = 4;
+
+    private enum Operation {
+        CREATE, GET, LIST, EXECUTE, RESULT
+    }
+
+    private final Map<String, String> options;
+
+    private final Map<Operation, Integer> mix;
+
+    private final HttpClient client;
+
+    private final ExecutorService clientExecutor;
+
+    private final URI base;
+
+    private final List<String> taskIds = new ArrayList<>();
+
+    private final List<String> resultIds = new ArrayList<>();
+
+    private final Queue<String> pendingIds = new ConcurrentLinkedQueue<>();
+
+    private LoadTest(Map<String, String> options, int port) {
+        this.options = options;
+        this.mix = parseMix(option("mix", "create:20,get:40,list:20,execute:10,result:10"));
+        this.clientExecutor = Executors.newFixedThreadPool(Integer.parseInt(option("clients", "8")));
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(clientExecutor)
+                .build();
+        this.base = URI.create("http://localhost:" + port + "/api/tasks/");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        List<String> properties = new ArrayList<>();
+        options.forEach((name, value) -> {
+            if (name.contains(".")) {
+                properties.add(name + "=" + value);
+            }
+        });
+
+        // project generation copies challenge.zip from the context class path, provide one of the requested size
+        Path resources = Files.createTempDirectory("load-test");
+        byte[] archive = new byte[Integer.parseInt(options.getOrDefault("result-bytes", "1048576"))];
+        ThreadLocalRandom.current().nextBytes(archive);
+        Files.write(resources.resolve("challenge.zip"), archive);
+        Thread.currentThread().setContextClassLoader(
+                new URLClassLoader(new URL[]{resources.toUri().toURL()}, LoadTest.class.getClassLoader()));
+
+        try (ConfigurableApplicationContext context =
+                     BenchmarkApplication.start("load-test", properties.toArray(new String[0]))) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            new LoadTest(options, port).run();
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration", "30")));
+        long warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup", "5")));
+        int maxInFlight = Integer.parseInt(option("max-in-flight", "10000"));
+
+        seed();
+        Path reportDir = Files.createDirectories(Paths.get("target", "load-test"));
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(Paths.get("target", "load-test.json")))) {
+            for (String step : option("rates", "100,200,400").split(",")) {
+                int rate = Integer.parseInt(step.trim());
+                preparePending(rate, warmupNanos + durationNanos);
+                generate(rate, warmupNanos, maxInFlight);
+                Step result = generate(rate, durationNanos, maxInFlight);
+                result.print(System.out, rate, durationNanos);
+                result.write(report, reportDir, rate, durationNanos);
+                report.flush();
+            }
+        } finally {
+            clientExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Issues requests at {@code rate} per second for {@code durationNanos}, then waits for the stragglers.
+     */
+    private Step generate(int rate, long durationNanos, int maxInFlight) throws InterruptedException {
+        Step step = new Step();
+        AtomicInteger inFlight = new AtomicInteger();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        for (long i = 0; ; i++) {
+            long intended = start + i * intervalNanos;
+            if (intended - start >= durationNanos) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = pick();
+            if (inFlight.get() >= maxInFlight) {
+                step.dropped.incrementAndGet();
+                continue;
+            }
+            HttpRequest request = request(operation);
+            if (request == null) {
+                step.dropped.incrementAndGet();
+                continue;
+            }
+            step.maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended);
+                step.histograms.get(operation).recordValue(latencyMicros);
+                if (error != null || response.statusCode() >= 400) {
+                    step.errors.get(operation).incrementAndGet();
+                }
+                inFlight.decrementAndGet();
+            });
+        }
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlight.get() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(10);
+        }
+        return step;
+    }
+
+    private HttpRequest request(Operation operation) {
+        switch (operation) {
+            case CREATE:
+                return post("", "{\"name\":\"load\",\"type\":\"COUNTER\",\"x\":0,\"y\":5}");
+            case GET:
+                return get(randomOf(taskIds));
+            case LIST:
+                return get("?limit=100");
+            case EXECUTE:
+                String id = pendingIds.poll();
+                return id == null ? null : post(id + "/execute", null);
+            case RESULT:
+                return get(randomOf(resultIds) + "/result");
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private void seed() throws IOException, InterruptedException {
+        for (int i = 0; i < SEEDED_TASKS; i++) {
+            taskIds.add(createTask("COUNTER"));
+        }
+        for (int i = 0; i < RESULT_TASKS; i++) {
+            String id = createTask("PROJECT_GENERATION");
+            send(post(id + "/execute", null));
+            resultIds.add(id);
+        }
+        long until = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        for (String id : resultIds) {
+            String status;
+            while (!"COMPLETED".equals(status = extract(STATUS, send(get(id))))) {
+                if ("FAILED".equals(status) || System.nanoTime() > until) {
+                    throw new IllegalStateException("Project generation " + id + " did not complete: " + status);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * Creates the pending tasks consumed by the execute operation of a step, with some headroom.
+     */
+    private void preparePending(int rate, long nanos) throws IOException, InterruptedException {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        double seconds = nanos / (double) TimeUnit.SECONDS.toNanos(1);
+        long needed = (long) Math.ceil(rate * seconds * mix.getOrDefault(Operation.EXECUTE, 0) / total * 1.2);
+        pendingIds.clear();
+        for (long i = 0; i < needed; i++) {
+            pendingIds.add(createTask("COUNTER"));
+        }
+    }
+
+    private String createTask(String type) throws IOException, InterruptedException {
+        return extract(ID, send(post("", "{\"name\":\"seed\",\"type\":\"" + type + "\",\"x\":0,\"y\":5}")));
+    }
+
+    private String send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 400) {
+            throw new IllegalStateException(request.method() + " " + request.uri() + " returned "
+                    + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(base.resolve(path)).header(AUTH_HEADER, AUTH_VALUE).GET().build();
+    }
+
+    private HttpRequest post(String path, String json) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(base.resolve(path)).header(AUTH_HEADER, AUTH_VALUE);
+        if (json == null) {
+            return builder.POST(HttpRequest.BodyPublishers.noBody()).build();
+        }
+        return builder.header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private Operation pick() {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        int r = ThreadLocalRandom.current().nextInt(total);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            r -= entry.getValue();
+            if (r < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty request mix");
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private static String randomOf(List<String> ids) {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    private static String extract(Pattern pattern, String json) {
+        Matcher matcher = pattern.matcher(json);
+        if (!matcher.find()) {
+            throw new IllegalStateException("Unexpected response " + json);
+        }
+        return matcher.group(1);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            String[] weight = part.split(":");
+            weights.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+        }
+        return weights;
+    }
+
+    private static final class Step {
+
+        private final Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+
+        private final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+
+        private final AtomicLong dropped = new AtomicLong();
+
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        private Step() {
+            for (Operation operation : Operation.values()) {
+                histograms.put(operation, new ConcurrentHistogram(3));
+                errors.put(operation, new AtomicLong());
+            }
+        }
+
+        private void print(PrintStream out, int rate, long durationNanos) {
+            out.printf("%nrate %d/s, max in flight %d, dropped %d%n", rate, maxInFlight.get(), dropped.get());
+            out.printf("%-8s %8s %7s %9s %9s %9s %9s %9s%n",
+                    "op", "count", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+            for (Operation operation : Operation.values()) {
+                Histogram h = histograms.get(operation);
+                if (h.getTotalCount() == 0) {
+                    continue;
+                }
+                out.printf("%-8s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", operation, h.getTotalCount(),
+                        errors.get(operation).get(), throughput(h, durationNanos), millis(h, 50),
+                        millis(h, 99), millis(h, 99.9), h.getMaxValue() / 1000.0);
+            }
+        }
+
+        private void write(PrintWriter report, Path reportDir, int rate, long durationNanos) throws IOException {
+            for (Operation operation : Operation.values()) {
+                Histogram h = histograms.get(operation);
+                if (h.getTotalCount() == 0) {
+                    continue;
+                }
+                report.printf("{\"rate\":%d,\"operation\":\"%s\",\"count\":%d,\"errors\":%d,\"dropped\":%d,"
+                                + "\"throughput\":%.1f,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,"
+                                + "\"p999Ms\":%.3f,\"maxMs\":%.3f}%n",
+                        rate, operation, h.getTotalCount(), errors.get(operation).get(), dropped.get(),
+                        throughput(h, durationNanos), millis(h, 50), millis(h, 90), millis(h, 99),
+                        millis(h, 99.9), h.getMaxValue() / 1000.0);
+                Path file = reportDir.resolve(operation.name().toLowerCase() + "-" + rate + ".hgrm");
+                try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+                    h.outputPercentileDistribution(out, 1000.0);
+                }
+            }
+        }
+
+        private static double throughput(Histogram h, long durationNanos) {
+            return h.getTotalCount() / (durationNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        private static double millis(Histogram h, double percentile) {
+            return h.getValueAtPercentile(percentile) / 1000.0;
+        }
+    }
+}
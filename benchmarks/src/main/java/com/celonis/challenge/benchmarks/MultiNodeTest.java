@@ -0,0 +1,334 @@
+package com.celonis.challenge.benchmarks;
+
+import com.celonis.challenge.api.model.BulkTaskRequest;
+import com.celonis.challenge.model.ProjectGenerationTask;
+import com.celonis.challenge.model.TaskStatus;
+import com.celonis.challenge.model.TaskType;
+import com.celonis.challenge.services.TaskService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Runs several nodes in one JVM against one shared in-memory database and checks that they share the work
+ * queue: every node claims tasks, every task runs to completion exactly once, tasks are taken over from
+ * nodes that went away, and a node coming back resumes the tasks it held.
+ * <p>
+ * All tasks are started through the first node. Some of them are left leased to a node that never existed,
+ * as if it had crashed right after claiming them, and must be claimed by the live nodes once those leases
+ * expired. Others are leased for far longer than the test to a node that only starts once the work is
+ * under way, as if it restarted after a crash; only its startup recovery can resume them. The last of the
+ * initial nodes is shut down half way, handing its tasks back. Every node runs at most
+ * {@code counters-per-node} counters at a time, so the run time shows how throughput grows with the number
+ * of nodes. Every node keeps its results in a directory of its own; once all tasks completed, one more node
+ * that produced none of them downloads every generated archive, which it has to generate again locally,
+ * and follows the events of a task that another node runs. The program exits with a non-zero status if any check fails.
+ * <p>
+ * Usage: {@code MultiNodeTest [nodes] [tasks] [counters-per-node]}
+ */
+public final class MultiNodeTest {
+
+    private static final String CRASHED_NODE = "crashed-node";
+
+    private static final long LEASE_MILLIS = 3000;
+
+    private static final long SETTLE_TIMEOUT_MILLIS = 120_000;
+
+    private static final int ARCHIVE_BYTES = 64 * 1024;
+
+    private static final long EVENTS_TIMEOUT_MILLIS = 10_000;
+
+    private int countersPerNode;
+
+    private Path resources;
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    private final List<MeterRegistry> registries = new ArrayList<>();
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int tasks = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        int countersPerNode = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        // project generation copies challenge.zip from the context class path, provide a small one whose
+        // bytes tell a download served from the wrong place apart
+        Path resources = Files.createTempDirectory("multi-node");
+        byte[] archive = new byte[ARCHIVE_BYTES];
+        new Random(42).nextBytes(archive);
+        Files.write(resources.resolve("challenge.zip"), archive);
+        Thread.currentThread().setContextClassLoader(
+                new URLClassLoader(new URL[]{resources.toUri().toURL()}, MultiNodeTest.class.getClassLoader()));
+
+        MultiNodeTest test = new MultiNodeTest();
+        boolean passed;
+        try {
+            test.countersPerNode = countersPerNode;
+            test.resources = resources;
+            for (int i = 0; i < nodes; i++) {
+                test.startNode();
+            }
+            passed = test.run(tasks);
+        } finally {
+            test.stopNodes();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private void startNode() {
+        int i = nodes.size() + 1;
+        nodes.add(BenchmarkApplication.start("multi-node",
+                // the first node owns the schema, the others join its database
+                "spring.jpa.hibernate.ddl-auto=" + (i == 1 ? "create-drop" : "none"),
+                "challenge.work.node-id=node-" + i,
+                "challenge.work.lease=PT" + TimeUnit.MILLISECONDS.toSeconds(LEASE_MILLIS) + "S",
+                "challenge.work.renew-interval-ms=1000",
+                "challenge.work.poll-interval-ms=200",
+                "challenge.work.claim-batch=20",
+                "challenge.work.max-counters=" + countersPerNode,
+                "challenge.results.dir=" + resources.resolve("results-" + i)));
+        registries.add(nodes.get(nodes.size() - 1).getBean(MeterRegistry.class));
+    }
+
+    private void stopNodes() {
+        // the first node drops the schema, so it goes last
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            if (nodes.get(i).isActive()) {
+                nodes.get(i).close();
+            }
+        }
+    }
+
+    private boolean run(int tasks) throws Exception {
+        TaskService taskService = nodes.get(0).getBean(TaskService.class);
+        JdbcTemplate jdbcTemplate = nodes.get(0).getBean(JdbcTemplate.class);
+
+        List<String> ids = createTasks(taskService, tasks);
+        List<String> orphans = ids.subList(0, tasks / 10);
+        List<String> interrupted = ids.subList(orphans.size(), 2 * orphans.size());
+        List<String> queued = ids.subList(2 * orphans.size(), ids.size());
+        int initialNodes = nodes.size();
+        String restarting = "node-" + (initialNodes + 1);
+        long start = System.nanoTime();
+        lease(jdbcTemplate, orphans, CRASHED_NODE, LEASE_MILLIS);
+        lease(jdbcTemplate, interrupted, restarting, 10 * SETTLE_TIMEOUT_MILLIS);
+        for (int from = 0; from < queued.size(); from += 1000) {
+            List<String> chunk = queued.subList(from, Math.min(from + 1000, queued.size()));
+            taskService.executeTasks(new BulkTaskRequest().ids(new ArrayList<>(chunk)));
+        }
+        System.out.printf("restarting %s%n", restarting);
+        startNode();
+
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MILLIS;
+        boolean stopped = initialNodes == 1;
+        long finished;
+        while ((finished = count(jdbcTemplate, TaskStatus.COMPLETED)) < tasks) {
+            if (System.currentTimeMillis() > deadline) {
+                failures.add((tasks - finished) + " tasks did not complete within " + SETTLE_TIMEOUT_MILLIS + " ms");
+                break;
+            }
+            if (!stopped && finished >= tasks / 2) {
+                System.out.printf("stopping node-%d after %d completed tasks%n", initialNodes, finished);
+                nodes.get(initialNodes - 1).close();
+                stopped = true;
+            }
+            Thread.sleep(100);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        verify(jdbcTemplate, tasks, orphans, interrupted.size());
+        System.out.printf("%d nodes, %d tasks: completed in %d ms%n", initialNodes, tasks, elapsed);
+        verifyDownloads(jdbcTemplate);
+        verifyEvents(taskService, jdbcTemplate);
+        for (int i = 0; i < registries.size(); i++) {
+            System.out.printf("node-%d claimed %.0f, recovered %.0f, lost %.0f, finished %d%n", i + 1,
+                    count(registries.get(i), "tasks.work.claimed"), count(registries.get(i), "tasks.work.recovered"),
+                    count(registries.get(i), "tasks.work.lost"), recorded(registries.get(i)));
+        }
+        failures.stream().limit(20).forEach(failure -> System.out.println("FAIL " + failure));
+        System.out.println(failures.isEmpty() ? "PASSED" : "FAILED with " + failures.size() + " violations");
+        return failures.isEmpty();
+    }
+
+    /**
+     * Counters lasting two to four seconds, with a project generation every tenth task.
+     */
+    private static List<String> createTasks(TaskService taskService, int tasks) {
+        List<String> ids = new ArrayList<>(tasks);
+        for (int i = 0; i < tasks; i++) {
+            ProjectGenerationTask task = new ProjectGenerationTask();
+            task.setName("multi-node-" + i);
+            if (i % 10 == 9) {
+                task.setType(TaskType.PROJECT_GENERATION);
+            } else {
+                task.setType(TaskType.COUNTER);
+                task.setX(0);
+                task.setY(2 + i % 3);
+            }
+            ids.add(taskService.createTask(task).getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Starts the tasks as if {@code owner} had claimed them, with a lease running for {@code leaseMillis}.
+     */
+    private static void lease(JdbcTemplate jdbcTemplate, List<String> ids, String owner, long leaseMillis) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Timestamp expiresAt = new Timestamp(now.getTime() + leaseMillis);
+        List<Object[]> rows = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            rows.add(new Object[]{now, owner, expiresAt, id});
+        }
+        jdbcTemplate.batchUpdate("update project_generation_task set status = '" + TaskStatus.RUNNING
+                + "', started_at = ?, current = x, lease_owner = ?, lease_expires_at = ?, version = version + 1 "
+                + "where id = ?", rows);
+    }
+
+    private void verify(JdbcTemplate jdbcTemplate, int tasks, List<String> orphans, int interrupted) {
+        long recorded = registries.stream().mapToLong(MultiNodeTest::recorded).sum();
+        if (recorded != tasks) {
+            failures.add("execution timers recorded " + recorded + " outcomes for " + tasks + " tasks");
+        }
+        for (int i = 0; i < registries.size() - 1; i++) {
+            if (count(registries.get(i), "tasks.work.claimed") == 0) {
+                failures.add("node-" + (i + 1) + " claimed no work");
+            }
+        }
+        double recovered = count(registries.get(registries.size() - 1), "tasks.work.recovered");
+        if (recovered != interrupted) {
+            failures.add("restarted node resumed " + recovered + " of its " + interrupted + " interrupted tasks");
+        }
+        Set<String> owners = new HashSet<>();
+        for (String id : orphans) {
+            owners.add(jdbcTemplate.queryForObject(
+                    "select lease_owner from project_generation_task where id = ?", String.class, id));
+        }
+        if (owners.contains(CRASHED_NODE)) {
+            failures.add("tasks leased to a crashed node were not taken over");
+        }
+    }
+
+    /**
+     * Downloads every generated archive at once through a node started after all of them were produced, whose
+     * result directory is empty, and checks that the full content arrives and is only stored once on that
+     * node: the concurrent misses wait for one regeneration, or find its result stored.
+     */
+    private void verifyDownloads(JdbcTemplate jdbcTemplate) throws Exception {
+        List<String> ids = jdbcTemplate.queryForList("select id from project_generation_task where type = ?",
+                String.class, TaskType.PROJECT_GENERATION.name());
+        startNode();
+        String node = "node-" + nodes.size();
+        int port = lastPort();
+        byte[] expected = Files.readAllBytes(resources.resolve("challenge.zip"));
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        List<CompletableFuture<HttpResponse<byte[]>>> downloads = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/tasks/" + id
+                    + "/result")).header("Celonis-Auth", "totally_secret").build();
+            downloads.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()));
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            HttpResponse<byte[]> response = downloads.get(i).get(SETTLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (response.statusCode() != 200 || !Arrays.equals(response.body(), expected)) {
+                failures.add("downloading " + ids.get(i) + " from " + node + " returned " + response.statusCode()
+                        + " with " + response.body().length + " of " + expected.length + " expected bytes");
+            }
+        }
+        MeterRegistry registry = registries.get(registries.size() - 1);
+        double written = count(registry, "tasks.results.written");
+        System.out.printf("%s downloaded %d archives, generated %.0f again, stored %.0f bytes%n", node, ids.size(),
+                count(registry, "tasks.results.regenerated"), written);
+        if (!ids.isEmpty() && written != expected.length) {
+            failures.add(node + " stored " + written + " bytes for one archive of " + expected.length);
+        }
+    }
+
+    /**
+     * Follows the events of a task through the last node while another node, played by writing the row,
+     * starts and completes it. The stream has to show both transitions and end, although the node serving it
+     * never runs the task.
+     */
+    private void verifyEvents(TaskService taskService, JdbcTemplate jdbcTemplate) throws Exception {
+        ProjectGenerationTask task = new ProjectGenerationTask();
+        task.setName("multi-node-events");
+        task.setType(TaskType.COUNTER);
+        task.setX(0);
+        task.setY(2);
+        String id = taskService.createTask(task).getId();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + lastPort() + "/api/tasks/"
+                + id + "/events")).header("Celonis-Auth", "totally_secret").build();
+        HttpResponse<Stream<String>> response = HttpClient.newHttpClient()
+                .send(request, HttpResponse.BodyHandlers.ofLines());
+        List<String> events = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> ended = CompletableFuture.runAsync(() -> response.body()
+                .filter(line -> line.startsWith("data:"))
+                .forEach(events::add));
+        awaitEvents(events, 1);
+        lease(jdbcTemplate, Collections.singletonList(id), CRASHED_NODE, SETTLE_TIMEOUT_MILLIS);
+        awaitEvents(events, 2);
+        jdbcTemplate.update("update project_generation_task set status = ?, current = y, progress_pct = 100, "
+                + "finished_at = ?, lease_owner = null, version = version + 1 where id = ?",
+                TaskStatus.COMPLETED.name(), new Timestamp(System.currentTimeMillis()), id);
+        try {
+            ended.get(EVENTS_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            failures.add("the events of " + id + " did not end within " + EVENTS_TIMEOUT_MILLIS + " ms");
+        }
+        System.out.printf("node-%d sent %d events of a task running elsewhere%n", nodes.size(), events.size());
+        if (events.size() != 3 || !events.get(1).contains(TaskStatus.RUNNING.name())
+                || !events.get(2).contains(TaskStatus.COMPLETED.name())) {
+            failures.add("the events of " + id + " were " + events);
+        }
+    }
+
+    private static void awaitEvents(List<String> events, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + EVENTS_TIMEOUT_MILLIS;
+        while (events.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    private int lastPort() {
+        return ((WebServerApplicationContext) nodes.get(nodes.size() - 1)).getWebServer().getPort();
+    }
+
+    private static long count(JdbcTemplate jdbcTemplate, TaskStatus status) {
+        return jdbcTemplate.queryForObject("select count(*) from project_generation_task where status = ?",
+                Long.class, status.name());
+    }
+
+    private static double count(MeterRegistry registry, String counter) {
+        return registry.get(counter).counter().count();
+    }
+
+    private static long recorded(MeterRegistry registry) {
+        return registry.find("tasks.execution").timers().stream().mapToLong(Timer::count).sum();
+    }
+}
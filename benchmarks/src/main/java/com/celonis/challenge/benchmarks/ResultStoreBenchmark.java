@@ -0,0 +1,97 @@
+package com.celonis.challenge.benchmarks;
+
+import com.celonis.challenge.services.CancellationToken;
+import com.celonis.challenge.services.ResultStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying a generated result into the content-addressed store, for new content and for content the store
+ * already holds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResultStoreBenchmark {
+
+    @Param({"1048576", "16777216"})
+    private int size;
+
+    private ConfigurableApplicationContext context;
+
+    private ResultStore resultStore;
+
+    private Path workDir;
+
+    private URL knownSource;
+
+    private URL freshSource;
+
+    private String stored;
+
+    @Setup
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("result-store-bench");
+        context = BenchmarkApplication.start("results-" + size,
+                "challenge.results.dir=" + workDir.resolve("results"));
+        resultStore = context.getBean(ResultStore.class);
+        knownSource = randomFile().toUri().toURL();
+        resultStore.store(knownSource, new CancellationToken());
+    }
+
+    @Setup(Level.Invocation)
+    public void newSource() throws IOException {
+        freshSource = randomFile().toUri().toURL();
+    }
+
+    @TearDown(Level.Invocation)
+    public void releaseStored() throws IOException {
+        resultStore.release(stored);
+        Files.deleteIfExists(Path.of(freshSource.getPath()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String storeNewContent() throws IOException {
+        stored = resultStore.store(freshSource, new CancellationToken());
+        return stored;
+    }
+
+    @Benchmark
+    public String storeKnownContent() throws IOException {
+        stored = resultStore.store(knownSource, new CancellationToken());
+        return stored;
+    }
+
+    private Path randomFile() throws IOException {
+        byte[] content = new byte[size];
+        ThreadLocalRandom.current().nextBytes(content);
+        return Files.write(Files.createTempFile(workDir, "source-", ".zip"), content);
+    }
+}
@@ -0,0 +1,98 @@
+package com.celonis.challenge.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Creating a burst of {@code tasks} counters over HTTP, one request per task against a single batch request.
+ * Scores are per burst.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TaskCreateBenchmark {
+
+    private static final String TASK_JSON = "{\"name\":\"bench\",\"type\":\"COUNTER\",\"x\":0,\"y\":10}";
+
+    @Param({"100", "1000"})
+    private int tasks;
+
+    private ConfigurableApplicationContext context;
+
+    private HttpClient client;
+
+    private HttpRequest single;
+
+    private HttpRequest batch;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start("create-" + tasks);
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        URI base = URI.create("http://localhost:" + port + "/api/tasks/");
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        single = post(base, TASK_JSON);
+        batch = post(base.resolve("batch"), IntStream.range(0, tasks)
+                .mapToObj(i -> TASK_JSON)
+                .collect(Collectors.joining(",", "[", "]")));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int oneByOne() throws IOException, InterruptedException {
+        int created = 0;
+        for (int i = 0; i < tasks; i++) {
+            created += send(single);
+        }
+        return created;
+    }
+
+    @Benchmark
+    public int batch() throws IOException, InterruptedException {
+        return send(batch);
+    }
+
+    private int send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Create failed with " + response.statusCode() + ": " + response.body());
+        }
+        return response.body().length();
+    }
+
+    private static HttpRequest post(URI uri, String json) {
+        return HttpRequest.newBuilder(uri)
+                .header("Celonis-Auth", "totally_secret")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+}
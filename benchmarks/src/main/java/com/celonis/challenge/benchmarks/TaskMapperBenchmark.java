@@ -0,0 +1,55 @@
+package com.celonis.challenge.benchmarks;
+
+import com.celonis.challenge.api.model.Task;
+import com.celonis.challenge.api.model.TaskProgress;
+import com.celonis.challenge.model.ProjectGenerationTask;
+import com.celonis.challenge.model.TaskMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity to DTO mapping done for every task returned by the API.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TaskMapperBenchmark {
+
+    private ProjectGenerationTask counter;
+
+    private ProjectGenerationTask generation;
+
+    @Setup
+    public void setUp() {
+        counter = Fixtures.counterTask();
+        generation = Fixtures.generationTask();
+    }
+
+    @Benchmark
+    public Task counterToDto() {
+        return TaskMapper.toDto(counter);
+    }
+
+    @Benchmark
+    public Task generationToDto() {
+        return TaskMapper.toDto(generation);
+    }
+
+    @Benchmark
+    public TaskProgress counterToProgressDto() {
+        return TaskMapper.toProgressDto(counter);
+    }
+}
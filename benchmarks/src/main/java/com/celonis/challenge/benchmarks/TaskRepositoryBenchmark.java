@@ -0,0 +1,149 @@
+package com.celonis.challenge.benchmarks;
+
+import com.celonis.challenge.model.ProjectGenerationTask;
+import com.celonis.challenge.model.ProjectGenerationTaskRepository;
+import com.celonis.challenge.model.TaskCountView;
+import com.celonis.challenge.model.TaskCursor;
+import com.celonis.challenge.model.TaskStatus;
+import com.celonis.challenge.model.TaskType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository queries behind the listing, progress and cleanup paths against a pre-filled task table.
+ * <p>
+ * The table is seeded with {@code rows} tasks spread over the last 30 days and over every status and type.
+ * Larger tables need a bigger heap, e.g. {@code -p rows=10000000 -jvmArgs -Xmx8g}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TaskRepositoryBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private static final int SAMPLED_IDS = 10_000;
+
+    private static final long SPAN_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    private static final String INSERT_SQL = "insert into project_generation_task " +
+            "(id, name, type, status, creation_date, x, y, current, version) values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Param({"100000", "1000000"})
+    private int rows;
+
+    private ConfigurableApplicationContext context;
+
+    private ProjectGenerationTaskRepository repository;
+
+    private final List<String> sampledIds = new ArrayList<>();
+
+    private TaskCursor deepCursor;
+
+    private Date cleanupCutoff;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start("repository-" + rows);
+        repository = context.getBean(ProjectGenerationTaskRepository.class);
+        seed(context.getBean(JdbcTemplate.class));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ProjectGenerationTask save() {
+        ProjectGenerationTask task = Fixtures.counterTask();
+        task.setId(null);
+        task.setStatus(TaskStatus.PENDING);
+        return repository.save(task);
+    }
+
+    @Benchmark
+    public Optional<ProjectGenerationTask> findById() {
+        return repository.findById(sampledIds.get(ThreadLocalRandom.current().nextInt(sampledIds.size())));
+    }
+
+    @Benchmark
+    public List<ProjectGenerationTask> firstPage() {
+        return repository.findPage(null, null, null, PAGE_SIZE + 1);
+    }
+
+    @Benchmark
+    public List<ProjectGenerationTask> deepPage() {
+        return repository.findPage(null, null, deepCursor, PAGE_SIZE + 1);
+    }
+
+    @Benchmark
+    public List<ProjectGenerationTask> filteredDeepPage() {
+        return repository.findPage(TaskStatus.COMPLETED, TaskType.COUNTER, deepCursor, PAGE_SIZE + 1);
+    }
+
+    @Benchmark
+    public List<String> cleanupChunk() {
+        return repository.findIdsByStatusCreatedBefore(TaskStatus.PENDING, cleanupCutoff,
+                PageRequest.of(0, CHUNK_SIZE));
+    }
+
+    @Benchmark
+    public List<TaskCountView> countByTypeAndStatus() {
+        return repository.countByTypeAndStatus();
+    }
+
+    private void seed(JdbcTemplate jdbcTemplate) {
+        TaskStatus[] statuses = TaskStatus.values();
+        TaskType[] types = TaskType.values();
+        long start = System.currentTimeMillis() - SPAN_MILLIS;
+        int sampleEvery = Math.max(1, rows / SAMPLED_IDS);
+        List<Object[]> batch = new ArrayList<>(CHUNK_SIZE);
+        for (int i = 0; i < rows; i++) {
+            String id = UUID.randomUUID().toString();
+            long created = start + SPAN_MILLIS * i / rows;
+            batch.add(new Object[]{id, "task-" + i, types[i % types.length].name(),
+                    statuses[(i / types.length) % statuses.length].name(), new Timestamp(created), 0, 100, 0, 0});
+            if (i % sampleEvery == 0) {
+                sampledIds.add(id);
+            }
+            if (batch.size() == CHUNK_SIZE) {
+                jdbcTemplate.batchUpdate(INSERT_SQL, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, batch);
+        }
+        // past 90% of the table, the cursor a client reaches after paging through most of it
+        deepCursor = new TaskCursor(new Date(start + SPAN_MILLIS * 9 / 10), "");
+        cleanupCutoff = new Date(start + SPAN_MILLIS / 2);
+    }
+}
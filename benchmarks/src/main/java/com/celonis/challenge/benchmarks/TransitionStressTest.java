@@ -0,0 +1,231 @@
+package com.celonis.challenge.benchmarks;
+
+import com.celonis.challenge.exceptions.ConflictException;
+import com.celonis.challenge.model.ProjectGenerationTask;
+import com.celonis.challenge.model.TaskStatus;
+import com.celonis.challenge.model.TaskType;
+import com.celonis.challenge.services.TaskService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hammers the task state transitions from many threads at once and checks that no task is ever executed,
+ * canceled or finished twice.
+ * <p>
+ * All threads go over all tasks in their own random order, executing, renaming and canceling them. Conflicts
+ * are the expected answer for the losers; anything else is a failure. Once everything settled, every task
+ * must have been started exactly once, canceled at most once, and the execution timer must have recorded
+ * exactly one outcome per task. The program exits with a non-zero status if any check fails.
+ * <p>
+ * Usage: {@code TransitionStressTest [tasks] [threads]}
+ */
+public final class TransitionStressTest {
+
+    private static final long SETTLE_TIMEOUT_MILLIS = 60_000;
+
+    private final TaskService taskService;
+
+    private final MeterRegistry meterRegistry;
+
+    private final int threads;
+
+    private final List<String> taskIds = new ArrayList<>();
+
+    private final Map<String, AtomicInteger> executions = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicInteger> cancellations = new ConcurrentHashMap<>();
+
+    private final AtomicInteger conflicts = new AtomicInteger();
+
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    private TransitionStressTest(ConfigurableApplicationContext context, int threads) {
+        this.taskService = context.getBean(TaskService.class);
+        this.meterRegistry = context.getBean(MeterRegistry.class);
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        // project generation copies challenge.zip from the context class path, provide a small one
+        Path resources = Files.createTempDirectory("transition-stress");
+        Files.write(resources.resolve("challenge.zip"), new byte[1024]);
+        Thread.currentThread().setContextClassLoader(
+                new URLClassLoader(new URL[]{resources.toUri().toURL()}, TransitionStressTest.class.getClassLoader()));
+
+        boolean passed;
+        try (ConfigurableApplicationContext context = BenchmarkApplication.start("transition-stress",
+                "challenge.execution.queue-capacity=" + tasks)) {
+            passed = new TransitionStressTest(context, threads).run(tasks);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run(int tasks) throws Exception {
+        createTasks(tasks);
+        long start = System.nanoTime();
+        race();
+        settle();
+        System.out.printf("%d tasks, %d threads: %d conflicts in %d ms%n", tasks, threads, conflicts.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        verify();
+        failures.stream().limit(20).forEach(failure -> System.out.println("FAIL " + failure));
+        System.out.println(failures.isEmpty() ? "PASSED" : "FAILED with " + failures.size() + " violations");
+        return failures.isEmpty();
+    }
+
+    /**
+     * Mixes project generations with counters that finish right away, shortly, or only when canceled.
+     */
+    private void createTasks(int tasks) {
+        int[] counterLengths = {0, 1, 2, 1_000_000};
+        for (int i = 0; i < tasks; i++) {
+            ProjectGenerationTask task = new ProjectGenerationTask();
+            task.setName("stress-" + i);
+            if (i % 5 == 0) {
+                task.setType(TaskType.PROJECT_GENERATION);
+            } else {
+                task.setType(TaskType.COUNTER);
+                task.setX(0);
+                task.setY(counterLengths[i % counterLengths.length]);
+            }
+            String id = taskService.createTask(task).getId();
+            taskIds.add(id);
+            executions.put(id, new AtomicInteger());
+            cancellations.put(id, new AtomicInteger());
+        }
+    }
+
+    private void race() throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    List<String> order = new ArrayList<>(taskIds);
+                    Collections.shuffle(order);
+                    barrier.await();
+                    for (String id : order) {
+                        attempt(id, () -> taskService.executeTask(id), executions);
+                        int action = ThreadLocalRandom.current().nextInt(4);
+                        if (action == 0) {
+                            attempt(id, () -> taskService.cancelTask(id), cancellations);
+                        } else if (action == 1) {
+                            ProjectGenerationTask rename = new ProjectGenerationTask();
+                            rename.setName("renamed-" + Thread.currentThread().getId());
+                            rename.setCreationDate(new Date());
+                            attempt(id, () -> taskService.update(id, rename), null);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the short tasks to finish and cancels the long running counters, racing the cancels too.
+     */
+    private void settle() throws Exception {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MILLIS;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                List<String> running = new ArrayList<>();
+                for (String id : taskIds) {
+                    if (taskService.getTask(id).getStatus() == TaskStatus.RUNNING) {
+                        running.add(id);
+                    }
+                }
+                if (running.isEmpty()) {
+                    return;
+                }
+                List<Future<?>> futures = new ArrayList<>();
+                for (String id : running) {
+                    ProjectGenerationTask task = taskService.getTask(id);
+                    if (task.getType() == TaskType.COUNTER && task.getY() > 2) {
+                        for (int i = 0; i < 2; i++) {
+                            futures.add(pool.submit(
+                                    () -> attempt(id, () -> taskService.cancelTask(id), cancellations)));
+                        }
+                    }
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                Thread.sleep(200);
+            }
+            failures.add("tasks still running after " + SETTLE_TIMEOUT_MILLIS + " ms");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void verify() {
+        long finished = 0;
+        for (String id : taskIds) {
+            ProjectGenerationTask task = taskService.getTask(id);
+            int started = executions.get(id).get();
+            int canceled = cancellations.get(id).get();
+            if (started != 1) {
+                failures.add(id + " started " + started + " times");
+            }
+            if (canceled > 1) {
+                failures.add(id + " canceled " + canceled + " times");
+            }
+            if ((task.getStatus() == TaskStatus.CANCELED) != (canceled == 1)) {
+                failures.add(id + " is " + task.getStatus() + " after " + canceled + " successful cancels");
+            }
+            if (task.getStatus() == TaskStatus.FAILED) {
+                failures.add(id + " failed");
+            }
+            if (task.getStatus() != TaskStatus.PENDING && task.getStatus() != TaskStatus.RUNNING) {
+                finished++;
+            }
+        }
+        long recorded = meterRegistry.find("tasks.execution").timers().stream().mapToLong(Timer::count).sum();
+        if (recorded != finished) {
+            failures.add("execution timer recorded " + recorded + " outcomes for " + finished + " finished tasks");
+        }
+    }
+
+    private void attempt(String id, Runnable transition, Map<String, AtomicInteger> successes) {
+        try {
+            transition.run();
+            if (successes != null) {
+                successes.get(id).incrementAndGet();
+            }
+        } catch (ConflictException e) {
+            conflicts.incrementAndGet();
+        } catch (RuntimeException e) {
+            failures.add(id + ": " + e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.celonis.challenge.config;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Bounded worker pool that runs task executions off the HTTP request threads.
+ * The work queue never claims more generations than there are free workers and queue slots, and hands a
+ * claimed one the pool still turns down back to the queue for another node or a later poll.
+ */
+@Configuration
+public class ExecutionConfiguration {
+
+    public static final String TASK_EXECUTOR = "taskExecutionPool";
+
+    @Bean(name = TASK_EXECUTOR)
+    public ThreadPoolTaskExecutor taskExecutionPool(
+            @Value("${challenge.execution.pool-size:4}") int poolSize,
+            @Value("${challenge.execution.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("task-exec-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * Queue depth, active workers and completed executions of the pool, as the {@code executor.*} meters
+     * tagged with {@code name=taskExecutionPool}.
+     */
+    @Bean
+    public MeterBinder taskExecutionPoolMetrics(@Qualifier(TASK_EXECUTOR) ThreadPoolTaskExecutor executor) {
+        return registry -> new ExecutorServiceMetrics(executor.getThreadPoolExecutor(), TASK_EXECUTOR, Tags.empty())
+                .bindTo(registry);
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.celonis.challenge.config;
+
+import org.openapitools.jackson.nullable.JsonNullableModule;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Teaches the MVC JSON converters the {@code JsonNullable} fields of the generated API models. The converters
+ * are built by {@code @EnableWebMvc} rather than from Boot's object mapper, so the module is added here.
+ */
+@Configuration
+public class JacksonConfiguration implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.stream()
+                .filter(MappingJackson2HttpMessageConverter.class::isInstance)
+                .map(converter -> ((MappingJackson2HttpMessageConverter) converter).getObjectMapper())
+                .forEach(objectMapper -> objectMapper.registerModule(new JsonNullableModule()));
+    }
+
+}
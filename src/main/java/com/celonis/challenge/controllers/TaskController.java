@@ -1,38 +1,134 @@
 package com.celonis.challenge.controllers;
 
+import com.celonis.challenge.api.model.BulkTaskRequest;
+import com.celonis.challenge.api.model.BulkTaskResult;
+import com.celonis.challenge.api.model.CreateTaskRequest;
+import com.celonis.challenge.api.model.TaskCount;
+import com.celonis.challenge.api.model.TaskProgress;
 import com.celonis.challenge.model.ProjectGenerationTask;
+import com.celonis.challenge.model.TaskCursor;
+import com.celonis.challenge.model.TaskMapper;
+import com.celonis.challenge.model.TaskStatus;
+import com.celonis.challenge.model.TaskType;
+import com.celonis.challenge.security.ApiKeyRegistry;
+import com.celonis.challenge.security.SimpleHeaderFilter;
 import com.celonis.challenge.services.FileService;
 import com.celonis.challenge.services.TaskService;
-import org.springframework.core.io.FileSystemResource;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/tasks")
 public class TaskController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     private final TaskService taskService;
 
     private final FileService fileService;
 
+    private final RequestMappingHandlerAdapter handlerAdapter;
+
     public TaskController(TaskService taskService,
-                          FileService fileService) {
+                          FileService fileService,
+                          RequestMappingHandlerAdapter handlerAdapter) {
         this.taskService = taskService;
         this.fileService = fileService;
+        this.handlerAdapter = handlerAdapter;
     }
 
     @GetMapping("/")
-    public List<ProjectGenerationTask> listTasks() {
-        return taskService.listTasks();
+    public ResponseEntity<List<ProjectGenerationTask>> listTasks(@RequestParam(required = false) Integer limit,
+                                                                 @RequestParam(required = false) String cursor,
+                                                                 @RequestParam(required = false) TaskStatus status,
+                                                                 @RequestParam(required = false) TaskType type) {
+        Slice<ProjectGenerationTask> page = taskService.listTasks(status, type, cursor, limit);
+        List<ProjectGenerationTask> tasks = page.getContent();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.hasNext()) {
+            response.header(NEXT_CURSOR_HEADER, TaskCursor.after(tasks.get(tasks.size() - 1)).encode());
+        }
+        return response.body(tasks);
+    }
+
+    /**
+     * Writes all matching tasks as one JSON array, row by row while they are read from the database, so the
+     * memory used does not depend on the number of tasks.
+     */
+    @GetMapping("/export")
+    public void exportTasks(@RequestParam(required = false) TaskStatus status,
+                            @RequestParam(required = false) TaskType type,
+                            HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        ObjectMapper objectMapper = jsonMapper();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            taskService.exportTasks(status, type, task -> {
+                try {
+                    objectMapper.writeValue(generator, task);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
     }
 
     @PostMapping("/")
-    public ProjectGenerationTask createTask(@RequestBody @Valid ProjectGenerationTask projectGenerationTask) {
-        return taskService.createTask(projectGenerationTask);
+    public ProjectGenerationTask createTask(@RequestBody @Valid ProjectGenerationTask projectGenerationTask,
+                                            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+                                                    String idempotencyKey,
+                                            @RequestAttribute(SimpleHeaderFilter.API_KEY_ATTRIBUTE)
+                                                    ApiKeyRegistry.ApiKey apiKey) {
+        return taskService.createTask(projectGenerationTask, apiKey.getId(), idempotencyKey);
+    }
+
+    @PostMapping("/batch")
+    public List<ProjectGenerationTask> createTasks(@RequestBody List<CreateTaskRequest> requests) {
+        return taskService.createTasks(requests.stream().map(TaskMapper::fromDto).collect(Collectors.toList()));
+    }
+
+    @PostMapping("/execute")
+    public List<BulkTaskResult> executeTasks(@RequestBody BulkTaskRequest request) {
+        return taskService.executeTasks(request);
+    }
+
+    @PostMapping("/cancel")
+    public List<BulkTaskResult> cancelTasks(@RequestBody BulkTaskRequest request) {
+        return taskService.cancelTasks(request);
+    }
+
+    @GetMapping("/progress")
+    public List<TaskProgress> getProgress(@RequestParam List<String> ids) {
+        return taskService.getProgress(ids);
+    }
+
+    @PostMapping("/progress")
+    public List<TaskProgress> getProgressForIds(@RequestBody List<String> ids) {
+        return taskService.getProgress(ids);
+    }
+
+    @GetMapping("/stats")
+    public List<TaskCount> countTasks() {
+        return taskService.countTasks();
     }
 
     @GetMapping("/{taskId}")
@@ -54,13 +150,44 @@ public class TaskController {
 
     @PostMapping("/{taskId}/execute")
     @ResponseStatus(HttpStatus.NO_CONTENT)
-    public void executeTask(@PathVariable String taskId) {
-        taskService.executeTask(taskId);
+    public void executeTask(@PathVariable String taskId,
+                            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                            @RequestAttribute(SimpleHeaderFilter.API_KEY_ATTRIBUTE) ApiKeyRegistry.ApiKey apiKey) {
+        taskService.executeTask(taskId, apiKey.getId(), idempotencyKey);
+    }
+
+    @PostMapping("/{taskId}/cancel")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public void cancelTask(@PathVariable String taskId) {
+        taskService.cancelTask(taskId);
+    }
+
+    @PostMapping("/{taskId}/generate")
+    public void generateTask(@PathVariable String taskId, HttpServletResponse response) throws IOException {
+        taskService.generateTask(taskId, response);
+    }
+
+    @GetMapping(value = "/{taskId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamEvents(@PathVariable String taskId) {
+        return taskService.subscribe(taskId);
     }
 
     @GetMapping("/{taskId}/result")
-    public ResponseEntity<FileSystemResource> getResult(@PathVariable String taskId) {
-        return fileService.getTaskResult(taskId);
+    public void getResult(@PathVariable String taskId,
+                          HttpServletRequest request,
+                          HttpServletResponse response) throws IOException {
+        fileService.getTaskResult(taskId, request, response);
+    }
+
+    /**
+     * The object mapper of the MVC JSON converter, so exported tasks look exactly like listed ones.
+     */
+    private ObjectMapper jsonMapper() {
+        return handlerAdapter.getMessageConverters().stream()
+                .filter(MappingJackson2HttpMessageConverter.class::isInstance)
+                .map(converter -> ((MappingJackson2HttpMessageConverter) converter).getObjectMapper())
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No JSON message converter configured"));
     }
 
 }
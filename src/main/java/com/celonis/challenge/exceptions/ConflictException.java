@@ -0,0 +1,9 @@
+package com.celonis.challenge.exceptions;
+
+public class ConflictException extends RuntimeException {
+
+    public ConflictException(String message) {
+        super(message);
+    }
+
+}
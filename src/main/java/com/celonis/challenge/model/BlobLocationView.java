@@ -0,0 +1,17 @@
+package com.celonis.challenge.model;
+
+/**
+ * Where the content of a blob lives, read without going through the persistence context so a blob evicted,
+ * restored or moved within the same request is seen as it is now.
+ */
+public interface BlobLocationView {
+
+    String getDigest();
+
+    long getSegment();
+
+    long getSegmentOffset();
+
+    long getSize();
+
+}
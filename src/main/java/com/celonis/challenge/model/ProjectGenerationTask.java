@@ -3,26 +3,83 @@ package com.celonis.challenge.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.hibernate.annotations.GenericGenerator;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Version;
 import java.util.Date;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_task_creation", columnList = "creationDate, id"),
+        @Index(name = "idx_task_status_creation", columnList = "status, creationDate, id"),
+        @Index(name = "idx_task_type_creation", columnList = "type, creationDate, id"),
+        @Index(name = "idx_task_type_status", columnList = "type, status"),
+        @Index(name = "idx_task_lease", columnList = "status, type, leaseExpiresAt"),
+        @Index(name = "idx_task_lease_owner", columnList = "leaseOwner, status, id")
+})
 public class ProjectGenerationTask {
 
     @Id
     @GeneratedValue(generator = "uuid")
     @GenericGenerator(name = "uuid", strategy = "uuid2")
+    @Column(length = 36)
     private String id;
 
     private String name;
 
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20, nullable = false)
+    private TaskType type;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 10, nullable = false)
+    private TaskStatus status;
+
+    @Column(nullable = false)
     private Date creationDate;
 
+    private Date startedAt;
+
+    private Date finishedAt;
+
+    private Date canceledAt;
+
     @JsonIgnore
     private String storageLocation;
 
+    private Integer x;
+
+    private Integer y;
+
+    private Integer current;
+
+    private Float progressPct;
+
+    /**
+     * Node executing the RUNNING task, null while it waits to be claimed.
+     */
+    @JsonIgnore
+    @Column(length = 64)
+    private String leaseOwner;
+
+    /**
+     * Until when the owner holds the task; once passed, any node may claim it. Tasks waiting to be claimed
+     * carry the time they were queued.
+     */
+    @JsonIgnore
+    private Date leaseExpiresAt;
+
+    @Version
+    @JsonIgnore
+    @Column(nullable = false)
+    private long version;
+
     public String getId() {
         return id;
     }
@@ -31,6 +88,14 @@ public class ProjectGenerationTask {
         this.id = id;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public String getName() {
         return name;
     }
@@ -39,6 +104,22 @@ public class ProjectGenerationTask {
         this.name = name;
     }
 
+    public TaskType getType() {
+        return type;
+    }
+
+    public void setType(TaskType type) {
+        this.type = type;
+    }
+
+    public TaskStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(TaskStatus status) {
+        this.status = status;
+    }
+
     public Date getCreationDate() {
         return creationDate;
     }
@@ -47,6 +128,30 @@ public class ProjectGenerationTask {
         this.creationDate = creationDate;
     }
 
+    public Date getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Date startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Date getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Date finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public Date getCanceledAt() {
+        return canceledAt;
+    }
+
+    public void setCanceledAt(Date canceledAt) {
+        this.canceledAt = canceledAt;
+    }
+
     public String getStorageLocation() {
         return storageLocation;
     }
@@ -55,4 +160,52 @@ public class ProjectGenerationTask {
         this.storageLocation = storageLocation;
     }
 
+    public Integer getX() {
+        return x;
+    }
+
+    public void setX(Integer x) {
+        this.x = x;
+    }
+
+    public Integer getY() {
+        return y;
+    }
+
+    public void setY(Integer y) {
+        this.y = y;
+    }
+
+    public Integer getCurrent() {
+        return current;
+    }
+
+    public void setCurrent(Integer current) {
+        this.current = current;
+    }
+
+    public Float getProgressPct() {
+        return progressPct;
+    }
+
+    public void setProgressPct(Float progressPct) {
+        this.progressPct = progressPct;
+    }
+
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    public Date getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    public void setLeaseExpiresAt(Date leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
 }
@@ -1,8 +1,110 @@
 package com.celonis.challenge.model;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
-public interface ProjectGenerationTaskRepository extends JpaRepository<ProjectGenerationTask, String> {
+public interface ProjectGenerationTaskRepository extends JpaRepository<ProjectGenerationTask, String>,
+        ProjectGenerationTaskRepositoryCustom {
+
+    List<TaskProgressView> findProgressByIdIn(Collection<String> ids);
+
+    List<TaskStateView> findStateByIdIn(Collection<String> ids);
+
+    Optional<TaskStateView> findStateById(String id);
+
+    long countByStatus(TaskStatus status);
+
+    @Query("select t.type as type, t.status as status, count(t) as count from ProjectGenerationTask t " +
+            "group by t.type, t.status")
+    List<TaskCountView> countByTypeAndStatus();
+
+    /**
+     * Oldest tasks in the given status created before {@code before}, served by the (status, creationDate) index.
+     */
+    @Query("select t.id from ProjectGenerationTask t " +
+            "where t.status = :status and t.creationDate < :before order by t.creationDate")
+    List<String> findIdsByStatusCreatedBefore(@Param("status") TaskStatus status,
+                                              @Param("before") Date before,
+                                              Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ProjectGenerationTask t where t.id in :ids and t.status = :status")
+    int deleteByIdInAndStatus(@Param("ids") Collection<String> ids, @Param("status") TaskStatus status);
+
+    /*
+     * State transitions are compare-and-set updates: each applies only if the row still has the expected
+     * status and version, and bumps the version. They return 0 when another writer got there first.
+     */
+
+    /**
+     * PENDING -> RUNNING, leased to {@code leaseOwner} until {@code leaseExpiresAt}. Without an owner the task
+     * is queued for any node to claim, and the expiry is the time it was queued.
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update ProjectGenerationTask t set t.status = com.celonis.challenge.model.TaskStatus.RUNNING, " +
+            "t.startedAt = :startedAt, t.current = :current, t.progressPct = :progressPct, " +
+            "t.leaseOwner = :leaseOwner, t.leaseExpiresAt = :leaseExpiresAt, t.version = t.version + 1 " +
+            "where t.id = :id and t.version = :version and t.status = com.celonis.challenge.model.TaskStatus.PENDING")
+    int markRunning(@Param("id") String id, @Param("version") long version, @Param("startedAt") Date startedAt,
+                    @Param("current") Integer current, @Param("progressPct") Float progressPct,
+                    @Param("leaseOwner") String leaseOwner, @Param("leaseExpiresAt") Date leaseExpiresAt);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update ProjectGenerationTask t set t.status = :status, t.finishedAt = :finishedAt, " +
+            "t.current = coalesce(:current, t.current), t.progressPct = coalesce(:progressPct, t.progressPct), " +
+            "t.version = t.version + 1 " +
+            "where t.id = :id and t.version = :version and t.status = com.celonis.challenge.model.TaskStatus.RUNNING")
+    int markFinished(@Param("id") String id, @Param("version") long version, @Param("status") TaskStatus status,
+                     @Param("finishedAt") Date finishedAt, @Param("current") Integer current,
+                     @Param("progressPct") Float progressPct);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update ProjectGenerationTask t set t.status = com.celonis.challenge.model.TaskStatus.CANCELED, " +
+            "t.canceledAt = :canceledAt, t.finishedAt = :canceledAt, " +
+            "t.current = coalesce(:current, t.current), t.progressPct = coalesce(:progressPct, t.progressPct), " +
+            "t.version = t.version + 1 " +
+            "where t.id = :id and t.version = :version and t.status = com.celonis.challenge.model.TaskStatus.RUNNING")
+    int markCanceled(@Param("id") String id, @Param("version") long version, @Param("canceledAt") Date canceledAt,
+                     @Param("current") Integer current, @Param("progressPct") Float progressPct);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update ProjectGenerationTask t set t.name = :name, t.version = t.version + 1 " +
+            "where t.id = :id and t.version = :version")
+    int rename(@Param("id") String id, @Param("version") long version, @Param("name") String name);
+
+    /**
+     * Attaches the result of a run to the task, as long as it still runs under the lease of {@code leaseOwner}
+     * and has no result yet; a task deleted, canceled or taken over meanwhile is left alone.
+     */
+    @Transactional
+    @Modifying
+    @Query("update ProjectGenerationTask t set t.storageLocation = :location " +
+            "where t.id = :id and t.status = com.celonis.challenge.model.TaskStatus.RUNNING " +
+            "and t.leaseOwner = :leaseOwner and t.storageLocation is null")
+    int attachStorageLocation(@Param("id") String id, @Param("leaseOwner") String leaseOwner,
+                              @Param("location") String location);
+
+    @Transactional
+    @Modifying
+    @Query("update ProjectGenerationTask t set t.storageLocation = :location " +
+            "where t.id = :id and t.storageLocation = :expected")
+    int replaceStorageLocation(@Param("id") String id, @Param("expected") String expected,
+                               @Param("location") String location);
+
 }
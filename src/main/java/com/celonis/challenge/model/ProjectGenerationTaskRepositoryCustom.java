@@ -0,0 +1,28 @@
+package com.celonis.challenge.model;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface ProjectGenerationTaskRepositoryCustom {
+
+    /**
+     * Keyset page in (creationDate, id) order, starting right after {@code after} (or at the beginning when
+     * null). Status and type filters are optional.
+     */
+    List<ProjectGenerationTask> findPage(TaskStatus status, TaskType type, TaskCursor after, int limit);
+
+    /**
+     * Ids of the oldest tasks in the given status, optionally restricted to a type and to tasks created
+     * before {@code createdBefore}.
+     */
+    List<String> findIds(TaskStatus status, TaskType type, Date createdBefore, int limit);
+
+    /**
+     * All tasks matching the optional filters in (creationDate, id) order, read through a forward-only
+     * cursor {@code fetchSize} rows at a time. Rows are detached as they are handed out, so the persistence
+     * context does not grow with the result. Must be consumed and closed inside a transaction.
+     */
+    Stream<ProjectGenerationTask> streamAll(TaskStatus status, TaskType type, int fetchSize);
+
+}
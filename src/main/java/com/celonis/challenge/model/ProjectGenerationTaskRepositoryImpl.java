@@ -0,0 +1,102 @@
+package com.celonis.challenge.model;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+class ProjectGenerationTaskRepositoryImpl implements ProjectGenerationTaskRepositoryCustom {
+
+    private static final String FETCH_SIZE_HINT = "org.hibernate.fetchSize";
+
+    private static final String READ_ONLY_HINT = "org.hibernate.readOnly";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<ProjectGenerationTask> findPage(TaskStatus status, TaskType type, TaskCursor after, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<ProjectGenerationTask> query = cb.createQuery(ProjectGenerationTask.class);
+        Root<ProjectGenerationTask> task = query.from(ProjectGenerationTask.class);
+        Path<Date> creationDate = task.get("creationDate");
+        Path<String> id = task.get("id");
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (status != null) {
+            predicates.add(cb.equal(task.get("status"), status));
+        }
+        if (type != null) {
+            predicates.add(cb.equal(task.get("type"), type));
+        }
+        if (after != null) {
+            predicates.add(cb.or(
+                    cb.greaterThan(creationDate, after.getCreationDate()),
+                    cb.and(cb.equal(creationDate, after.getCreationDate()), cb.greaterThan(id, after.getId()))));
+        }
+
+        query.select(task)
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(cb.asc(creationDate), cb.asc(id));
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public List<String> findIds(TaskStatus status, TaskType type, Date createdBefore, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = cb.createQuery(String.class);
+        Root<ProjectGenerationTask> task = query.from(ProjectGenerationTask.class);
+        Path<Date> creationDate = task.get("creationDate");
+        Path<String> id = task.get("id");
+
+        List<Predicate> predicates = new ArrayList<>();
+        predicates.add(cb.equal(task.get("status"), status));
+        if (type != null) {
+            predicates.add(cb.equal(task.get("type"), type));
+        }
+        if (createdBefore != null) {
+            predicates.add(cb.lessThan(creationDate, createdBefore));
+        }
+
+        query.select(id)
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(cb.asc(creationDate), cb.asc(id));
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public Stream<ProjectGenerationTask> streamAll(TaskStatus status, TaskType type, int fetchSize) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<ProjectGenerationTask> query = cb.createQuery(ProjectGenerationTask.class);
+        Root<ProjectGenerationTask> task = query.from(ProjectGenerationTask.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (status != null) {
+            predicates.add(cb.equal(task.get("status"), status));
+        }
+        if (type != null) {
+            predicates.add(cb.equal(task.get("type"), type));
+        }
+
+        query.select(task)
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(cb.asc(task.get("creationDate")), cb.asc(task.get("id")));
+        return entityManager.createQuery(query)
+                .setHint(FETCH_SIZE_HINT, fetchSize)
+                .setHint(READ_ONLY_HINT, true)
+                .getResultStream()
+                .peek(entityManager::detach);
+    }
+
+}
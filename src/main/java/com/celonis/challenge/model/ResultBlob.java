@@ -0,0 +1,55 @@
+package com.celonis.challenge.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.util.Date;
+
+/**
+ * A stored task result, identified by the SHA-256 digest of its content and shared by every task that
+ * produced the same bytes, on any node. The content itself is held per node, see {@link ResultCopy}.
+ */
+@Entity
+public class ResultBlob {
+
+    @Id
+    private String digest;
+
+    private long size;
+
+    private int refCount;
+
+    private Date creationDate;
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(int refCount) {
+        this.refCount = refCount;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    public void setCreationDate(Date creationDate) {
+        this.creationDate = creationDate;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.celonis.challenge.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+
+@Repository
+public interface ResultBlobRepository extends JpaRepository<ResultBlob, String> {
+
+    /**
+     * Inserts the blob with one reference unless it exists already, rather than save() merging over a blob
+     * another task stored meanwhile. Returns 0 when the blob was there, so the caller retains it instead.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into result_blob (digest, size, ref_count, creation_date) " +
+            "select :digest, :size, 1, :creationDate from dual " +
+            "where not exists (select 1 from result_blob where digest = :digest)", nativeQuery = true)
+    int insert(@Param("digest") String digest, @Param("size") long size, @Param("creationDate") Date creationDate);
+
+    @Transactional
+    @Modifying
+    @Query("update ResultBlob b set b.refCount = b.refCount + 1 where b.digest = :digest")
+    int retain(@Param("digest") String digest);
+
+    @Transactional
+    @Modifying
+    @Query("update ResultBlob b set b.refCount = b.refCount - 1 where b.digest = :digest and b.refCount > 0")
+    int release(@Param("digest") String digest);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ResultBlob b where b.digest = :digest and b.refCount = 0")
+    int deleteIfUnreferenced(@Param("digest") String digest);
+
+}
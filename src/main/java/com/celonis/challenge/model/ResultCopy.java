@@ -0,0 +1,107 @@
+package com.celonis.challenge.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The content of a {@link ResultBlob} as held by one node: {@code size} bytes at {@code segmentOffset} inside
+ * the segment file {@code segment} of that node's result directory. Segment ids are only unique per node, so
+ * this table is the offset index of each node's own segments; a node without a copy of a blob generates the
+ * content again.
+ */
+@Entity
+@IdClass(ResultCopy.Key.class)
+@Table(indexes = @Index(name = "idx_copy_node_segment", columnList = "node, segment"))
+public class ResultCopy {
+
+    @Id
+    private String digest;
+
+    @Id
+    private String node;
+
+    private long segment;
+
+    private long segmentOffset;
+
+    private long size;
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public void setNode(String node) {
+        this.node = node;
+    }
+
+    public long getSegment() {
+        return segment;
+    }
+
+    public void setSegment(long segment) {
+        this.segment = segment;
+    }
+
+    public long getSegmentOffset() {
+        return segmentOffset;
+    }
+
+    public void setSegmentOffset(long segmentOffset) {
+        this.segmentOffset = segmentOffset;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public static class Key implements Serializable {
+
+        private String digest;
+
+        private String node;
+
+        public Key() {
+        }
+
+        public Key(String digest, String node) {
+            this.digest = digest;
+            this.node = node;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(digest, key.digest) && Objects.equals(node, key.node);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(digest, node);
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.celonis.challenge.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ResultCopyRepository extends JpaRepository<ResultCopy, ResultCopy.Key> {
+
+    /**
+     * Inserts the copy unless the node holds one already, rather than save() merging over the copy another
+     * task stored meanwhile. Returns 0 when the copy was there.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into result_copy (digest, node, segment, segment_offset, size) " +
+            "select :digest, :node, :segment, :offset, :size from dual " +
+            "where not exists (select 1 from result_copy where digest = :digest and node = :node)",
+            nativeQuery = true)
+    int insert(@Param("digest") String digest, @Param("node") String node, @Param("segment") long segment,
+               @Param("offset") long offset, @Param("size") long size);
+
+    /**
+     * Points a copy at its new place in another segment, unless it was dropped or moved meanwhile.
+     */
+    @Transactional
+    @Modifying
+    @Query("update ResultCopy c set c.segment = :to, c.segmentOffset = :toOffset " +
+            "where c.digest = :digest and c.node = :node and c.segment = :from and c.segmentOffset = :fromOffset")
+    int relocate(@Param("digest") String digest, @Param("node") String node, @Param("from") long from,
+                 @Param("fromOffset") long fromOffset, @Param("to") long to, @Param("toOffset") long toOffset);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ResultCopy c where c.digest = :digest and c.node = :node")
+    int deleteByDigestAndNode(@Param("digest") String digest, @Param("node") String node);
+
+    /**
+     * Drops the copies every node holds of a blob nobody references anymore.
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from ResultCopy c where c.digest = :digest")
+    int deleteByDigest(@Param("digest") String digest);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ResultCopy c where c.node = :node and c.segment = :segment")
+    int deleteByNodeAndSegment(@Param("node") String node, @Param("segment") long segment);
+
+    @Query("select c.segment as segment, sum(c.size) as liveBytes from ResultCopy c where c.node = :node " +
+            "group by c.segment")
+    List<SegmentUsageView> sumSizeBySegment(@Param("node") String node);
+
+    List<ResultCopy> findByNodeAndSegmentOrderBySegmentOffset(String node, long segment);
+
+    List<ResultCopy> findByNode(String node);
+
+    Optional<BlobLocationView> findLocationByDigestAndNode(String digest, String node);
+
+    boolean existsByNodeAndSegment(String node, long segment);
+
+}
@@ -0,0 +1,12 @@
+package com.celonis.challenge.model;
+
+/**
+ * Bytes of a result segment still referenced by a blob, used to pick the segments worth compacting.
+ */
+public interface SegmentUsageView {
+
+    long getSegment();
+
+    long getLiveBytes();
+
+}
@@ -0,0 +1,14 @@
+package com.celonis.challenge.model;
+
+/**
+ * Number of tasks per type and status, answered from the (type, status) index alone.
+ */
+public interface TaskCountView {
+
+    TaskType getType();
+
+    TaskStatus getStatus();
+
+    long getCount();
+
+}
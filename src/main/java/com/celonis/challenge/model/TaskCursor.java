@@ -0,0 +1,48 @@
+package com.celonis.challenge.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Position in the (creationDate, id) ordering of tasks, handed to clients as an opaque token.
+ */
+public class TaskCursor {
+
+    private final Date creationDate;
+
+    private final String id;
+
+    public TaskCursor(Date creationDate, String id) {
+        this.creationDate = creationDate;
+        this.id = id;
+    }
+
+    public static TaskCursor after(ProjectGenerationTask task) {
+        return new TaskCursor(task.getCreationDate(), task.getId());
+    }
+
+    public static TaskCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            return new TaskCursor(new Date(Long.parseLong(raw.substring(0, separator))), raw.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    public String encode() {
+        String raw = creationDate.getTime() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+}
@@ -1,27 +1,74 @@
 package com.celonis.challenge.model;
 
+import com.celonis.challenge.api.model.CreateTaskRequest;
 import com.celonis.challenge.api.model.Task;
+import com.celonis.challenge.api.model.TaskCount;
+import com.celonis.challenge.api.model.TaskProgress;
 
-import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
 
 public class TaskMapper {
 
     public static Task toDto(ProjectGenerationTask e) {
         Task t = new Task();
         t.setId(e.getId());
-        t.setType(e.getType());
-        t.setStatus(e.getStatus());
-        t.setCreatedAt(e.getCreatedAt());
-        t.setStartedAt(e.getStartedAt());
-        t.setFinishedAt(e.getFinishedAt());
-        t.setCanceledAt(e.getCanceledAt());
-        t.setStorageLocation(e.getStorageLocation());
-        t.setX(e.getX());
-        t.setY(e.getY());
-        t.setCurrent(e.getCurrent());
+        if (e.getType() != null) {
+            t.setType(Task.TypeEnum.fromValue(e.getType().name()));
+        }
+        if (e.getStatus() != null) {
+            t.setStatus(Task.StatusEnum.fromValue(e.getStatus().name()));
+        }
+        t.setCreatedAt(toOffsetDateTime(e.getCreationDate()));
+        t.startedAt(toOffsetDateTime(e.getStartedAt()));
+        t.finishedAt(toOffsetDateTime(e.getFinishedAt()));
+        t.canceledAt(toOffsetDateTime(e.getCanceledAt()));
+        t.storageLocation(e.getStorageLocation());
+        t.x(e.getX());
+        t.y(e.getY());
+        t.current(e.getCurrent());
         if (e.getProgressPct() != null) {
-            t.setProgressPct(BigDecimal.valueOf(e.getProgressPct()));
+            t.progressPct(e.getProgressPct());
         }
         return t;
     }
-}
\ No newline at end of file
+
+    public static ProjectGenerationTask fromDto(CreateTaskRequest r) {
+        ProjectGenerationTask e = new ProjectGenerationTask();
+        e.setName(r.getName());
+        if (r.getType() != null) {
+            e.setType(TaskType.valueOf(r.getType().getValue()));
+        }
+        e.setX(r.getX().orElse(null));
+        e.setY(r.getY().orElse(null));
+        return e;
+    }
+
+    public static TaskProgress toProgressDto(String id, TaskStatus status, Integer current, Float progressPct) {
+        return new TaskProgress()
+                .id(id)
+                .status(TaskProgress.StatusEnum.fromValue(status.name()))
+                .current(current)
+                .progressPct(progressPct);
+    }
+
+    public static TaskProgress toProgressDto(TaskProgressView v) {
+        return toProgressDto(v.getId(), v.getStatus(), v.getCurrent(), v.getProgressPct());
+    }
+
+    public static TaskProgress toProgressDto(ProjectGenerationTask e) {
+        return toProgressDto(e.getId(), e.getStatus(), e.getCurrent(), e.getProgressPct());
+    }
+
+    public static TaskCount toCountDto(TaskCountView v) {
+        return new TaskCount()
+                .type(TaskCount.TypeEnum.fromValue(v.getType().name()))
+                .status(TaskCount.StatusEnum.fromValue(v.getStatus().name()))
+                .count(v.getCount());
+    }
+
+    private static OffsetDateTime toOffsetDateTime(Date date) {
+        return date != null ? date.toInstant().atOffset(ZoneOffset.UTC) : null;
+    }
+}
@@ -0,0 +1,16 @@
+package com.celonis.challenge.model;
+
+/**
+ * Projection of the progress columns only, used by bulk progress lookups.
+ */
+public interface TaskProgressView {
+
+    String getId();
+
+    TaskStatus getStatus();
+
+    Integer getCurrent();
+
+    Float getProgressPct();
+
+}
@@ -0,0 +1,29 @@
+package com.celonis.challenge.model;
+
+import java.util.Date;
+
+/**
+ * Projection of the columns deciding a state transition. Being a projection it is always read from the
+ * database, never from the persistence context, so it sees the latest version of the row.
+ */
+public interface TaskStateView {
+
+    String getId();
+
+    TaskType getType();
+
+    TaskStatus getStatus();
+
+    Integer getX();
+
+    Integer getY();
+
+    Integer getCurrent();
+
+    Date getStartedAt();
+
+    String getLeaseOwner();
+
+    long getVersion();
+
+}
@@ -0,0 +1,15 @@
+package com.celonis.challenge.model;
+
+public enum TaskStatus {
+
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    CANCELED,
+    FAILED;
+
+    public boolean isTerminal() {
+        return this == COMPLETED || this == CANCELED || this == FAILED;
+    }
+
+}
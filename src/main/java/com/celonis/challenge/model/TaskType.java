@@ -0,0 +1,8 @@
+package com.celonis.challenge.model;
+
+public enum TaskType {
+
+    PROJECT_GENERATION,
+    COUNTER
+
+}
@@ -0,0 +1,81 @@
+package com.celonis.challenge.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The API keys accepted in the {@code Celonis-Auth} header, each with its own token bucket per
+ * {@link EndpointClass}, so a client exhausting its budget never eats into the budget of another.
+ * A class configured with a capacity of 0 is not limited.
+ */
+@Component
+public class ApiKeyRegistry {
+
+    private final Map<String, ApiKey> keys;
+
+    public ApiKeyRegistry(@Value("${challenge.auth.keys:totally_secret}") String[] keys,
+                          @Value("${challenge.rate-limit.create.capacity:100}") int createCapacity,
+                          @Value("${challenge.rate-limit.create.per-second:50}") double createPerSecond,
+                          @Value("${challenge.rate-limit.execute.capacity:100}") int executeCapacity,
+                          @Value("${challenge.rate-limit.execute.per-second:50}") double executePerSecond,
+                          @Value("${challenge.rate-limit.read.capacity:1000}") int readCapacity,
+                          @Value("${challenge.rate-limit.read.per-second:500}") double readPerSecond) {
+        Map<String, ApiKey> registry = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            Map<EndpointClass, TokenBucket> buckets = new EnumMap<>(EndpointClass.class);
+            putBucket(buckets, EndpointClass.CREATE, createCapacity, createPerSecond);
+            putBucket(buckets, EndpointClass.EXECUTE, executeCapacity, executePerSecond);
+            putBucket(buckets, EndpointClass.READ, readCapacity, readPerSecond);
+            registry.put(keys[i].trim(), new ApiKey("key-" + (i + 1), buckets));
+        }
+        this.keys = Collections.unmodifiableMap(registry);
+    }
+
+    /**
+     * The key registered under the given header value, or null if it is unknown.
+     */
+    public ApiKey find(String key) {
+        return key != null ? keys.get(key) : null;
+    }
+
+    private static void putBucket(Map<EndpointClass, TokenBucket> buckets, EndpointClass endpointClass,
+                                  int capacity, double perSecond) {
+        if (capacity > 0) {
+            buckets.put(endpointClass, new TokenBucket(capacity, perSecond));
+        }
+    }
+
+    public static final class ApiKey {
+
+        private final String id;
+
+        private final Map<EndpointClass, TokenBucket> buckets;
+
+        private ApiKey(String id, Map<EndpointClass, TokenBucket> buckets) {
+            this.id = id;
+            this.buckets = buckets;
+        }
+
+        /**
+         * Names the key by its position in {@code challenge.auth.keys}, so it can be told apart without
+         * handing the secret around.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Takes a token for a request of the given class. Returns 0 if the request may proceed, otherwise the
+         * nanoseconds until it may be retried.
+         */
+        public long tryAcquire(EndpointClass endpointClass) {
+            TokenBucket bucket = buckets.get(endpointClass);
+            return bucket != null ? bucket.tryAcquire(System.nanoTime()) : 0;
+        }
+    }
+}
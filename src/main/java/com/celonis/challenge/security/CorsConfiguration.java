@@ -1,6 +1,8 @@
 package com.celonis.challenge.security;
 
+import com.celonis.challenge.controllers.TaskController;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
@@ -11,7 +13,9 @@ public class CorsConfiguration extends WebMvcConfigurerAdapter {
 
     @Override
     public void addCorsMappings(CorsRegistry registry) {
-        registry.addMapping("/**");
+        registry.addMapping("/**")
+                .exposedHeaders(TaskController.NEXT_CURSOR_HEADER, HttpHeaders.ETAG, HttpHeaders.CONTENT_RANGE,
+                        HttpHeaders.ACCEPT_RANGES, HttpHeaders.CONTENT_DISPOSITION, HttpHeaders.RETRY_AFTER);
     }
 
 }
@@ -0,0 +1,43 @@
+package com.celonis.challenge.security;
+
+import org.springframework.http.HttpMethod;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Groups of endpoints sharing one rate limit per API key.
+ */
+public enum EndpointClass {
+
+    /**
+     * Task creation.
+     */
+    CREATE,
+
+    /**
+     * Starting and stopping task executions.
+     */
+    EXECUTE,
+
+    /**
+     * Everything else, reads in particular.
+     */
+    READ;
+
+    private static final String TASKS_PATH = "/api/tasks";
+
+    static EndpointClass of(HttpServletRequest request) {
+        if (!HttpMethod.POST.matches(request.getMethod())) {
+            return READ;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.equals(TASKS_PATH) || path.equals(TASKS_PATH + "/") || path.equals(TASKS_PATH + "/batch")) {
+            return CREATE;
+        }
+        if (path.startsWith(TASKS_PATH + "/") && (path.endsWith("/execute") || path.endsWith("/cancel")
+                || path.endsWith("/generate"))) {
+            return EXECUTE;
+        }
+        return READ;
+    }
+}
@@ -1,5 +1,7 @@
 package com.celonis.challenge.security;
 
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
@@ -8,12 +10,23 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class SimpleHeaderFilter extends OncePerRequestFilter {
 
+    /**
+     * Request attribute holding the {@link ApiKeyRegistry.ApiKey} the request was authenticated with.
+     */
+    public static final String API_KEY_ATTRIBUTE = "com.celonis.challenge.security.apiKey";
+
     private final String HEADER_NAME = "Celonis-Auth";
-    private final String HEADER_VALUE = "totally_secret";
+
+    private final ApiKeyRegistry apiKeyRegistry;
+
+    public SimpleHeaderFilter(ApiKeyRegistry apiKeyRegistry) {
+        this.apiKeyRegistry = apiKeyRegistry;
+    }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
@@ -25,12 +38,22 @@ public class SimpleHeaderFilter extends OncePerRequestFilter {
             return;
         }
 
-        String val = request.getHeader(HEADER_NAME);
-        if (val == null || !val.equals(HEADER_VALUE)) {
+        ApiKeyRegistry.ApiKey apiKey = apiKeyRegistry.find(request.getHeader(HEADER_NAME));
+        if (apiKey == null) {
             response.setStatus(401);
             response.getWriter().append("Not authorized");
             return;
         }
+
+        long waitNanos = apiKey.tryAcquire(EndpointClass.of(request));
+        if (waitNanos > 0) {
+            long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+            response.getWriter().append("Too many requests");
+            return;
+        }
+        request.setAttribute(API_KEY_ATTRIBUTE, apiKey);
         filterChain.doFilter(request, response);
     }
 }
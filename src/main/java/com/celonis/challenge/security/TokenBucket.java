@@ -0,0 +1,46 @@
+package com.celonis.challenge.security;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket.
+ * <p>
+ * The bucket is kept in its GCRA form: instead of a token count and a refill timestamp, a single long holds
+ * the theoretical arrival time of the next request, the instant at which the bucket would be full again.
+ * Taking a token moves it forward by one emission interval with a compare-and-set, so concurrent requests
+ * never block each other and no background refill is needed.
+ */
+final class TokenBucket {
+
+    private final long emissionNanos;
+
+    private final long burstNanos;
+
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    TokenBucket(int capacity, double tokensPerSecond) {
+        if (capacity < 1 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("Token bucket needs a positive capacity and refill rate");
+        }
+        this.emissionNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond));
+        this.burstNanos = emissionNanos * capacity;
+    }
+
+    /**
+     * Takes one token if available. Returns 0 on success, otherwise the nanoseconds until a token is available.
+     */
+    long tryAcquire(long nowNanos) {
+        while (true) {
+            long current = theoreticalArrival.get();
+            long next = Math.max(current, nowNanos) + emissionNanos;
+            long allowedAt = next - burstNanos;
+            if (allowedAt > nowNanos) {
+                return allowedAt - nowNanos;
+            }
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+}
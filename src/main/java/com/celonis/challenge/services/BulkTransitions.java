@@ -0,0 +1,108 @@
+package com.celonis.challenge.services;
+
+import com.celonis.challenge.model.TaskStatus;
+import com.celonis.challenge.model.TaskType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * State transitions of many tasks at once.
+ * <p>
+ * Every transition is one conditional UPDATE per task, guarded by the state the task must be in and bumping
+ * its version like the single-task transitions do, and all of them go to the database as a single JDBC batch.
+ * The update count of each statement tells whether that task made the transition, so callers learn the
+ * outcome per task without reading the rows again. Should the driver not report the count of a statement, the
+ * row is read back: the transition time it stamps tells whether this batch moved the task.
+ */
+@Component
+public class BulkTransitions {
+
+    private static final String START_SQL = "update project_generation_task set status = '" + TaskStatus.RUNNING
+            + "', started_at = ?, current = x, progress_pct = case when type = '" + TaskType.COUNTER
+            + "' then case when y = x then 100 else 0 end end, lease_owner = null, lease_expires_at = ?, "
+            + "version = version + 1 where id = ? and status = '" + TaskStatus.PENDING + "'";
+
+    private static final String CANCEL_SQL = "update project_generation_task set status = '" + TaskStatus.CANCELED
+            + "', canceled_at = ?, finished_at = ?, current = coalesce(?, current), "
+            + "progress_pct = coalesce(?, progress_pct), version = version + 1 where id = ? and status = '"
+            + TaskStatus.RUNNING + "'";
+
+    private static final String STARTED_AT_SQL =
+            "select id from project_generation_task where started_at = ? and id in ";
+
+    private static final String CANCELED_AT_SQL =
+            "select id from project_generation_task where canceled_at = ? and id in ";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public BulkTransitions(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * PENDING -> RUNNING, queued for any node to claim; counters start at x. Returns whether each task made the
+     * transition.
+     */
+    public boolean[] start(List<String> ids, Date startedAt) {
+        Timestamp at = new Timestamp(startedAt.getTime());
+        List<Object[]> rows = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            rows.add(new Object[]{at, at, id});
+        }
+        return applied(ids, jdbcTemplate.batchUpdate(START_SQL, rows,
+                new int[]{Types.TIMESTAMP, Types.TIMESTAMP, Types.VARCHAR}), STARTED_AT_SQL, at);
+    }
+
+    /**
+     * RUNNING -> CANCELED, keeping the last progress of counters found in {@code progress}. Returns whether
+     * each task made the transition.
+     */
+    public boolean[] cancel(List<String> ids, Map<String, ProgressRegistry.Progress> progress, Date canceledAt) {
+        Timestamp at = new Timestamp(canceledAt.getTime());
+        List<Object[]> rows = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            ProgressRegistry.Progress p = progress.get(id);
+            rows.add(new Object[]{at, at, p != null ? p.getCurrent() : null, p != null ? p.getProgressPct() : null,
+                    id});
+        }
+        return applied(ids, jdbcTemplate.batchUpdate(CANCEL_SQL, rows,
+                new int[]{Types.TIMESTAMP, Types.TIMESTAMP, Types.INTEGER, Types.REAL, Types.VARCHAR}),
+                CANCELED_AT_SQL, at);
+    }
+
+    /**
+     * Which statements of the batch moved their task, reading back the ones the driver gave no count for.
+     */
+    private boolean[] applied(List<String> ids, int[] counts, String stampedSql, Timestamp at) {
+        boolean[] applied = new boolean[counts.length];
+        List<String> unknown = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            applied[i] = counts[i] > 0;
+            if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                unknown.add(ids.get(i));
+            }
+        }
+        if (!unknown.isEmpty()) {
+            List<Object> args = new ArrayList<>(unknown.size() + 1);
+            args.add(at);
+            args.addAll(unknown);
+            String sql = stampedSql + "(" + String.join(", ", Collections.nCopies(unknown.size(), "?")) + ")";
+            Set<String> moved = new HashSet<>(jdbcTemplate.queryForList(sql, String.class, args.toArray()));
+            for (int i = 0; i < counts.length; i++) {
+                applied[i] |= counts[i] == Statement.SUCCESS_NO_INFO && moved.contains(ids.get(i));
+            }
+        }
+        return applied;
+    }
+}
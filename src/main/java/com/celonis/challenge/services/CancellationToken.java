@@ -0,0 +1,26 @@
+package com.celonis.challenge.services;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation flag shared between the thread asking for a cancel and the one doing the work.
+ */
+public class CancellationToken {
+
+    private volatile boolean canceled;
+
+    public void cancel() {
+        canceled = true;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    public void throwIfCanceled() {
+        if (canceled) {
+            throw new CancellationException();
+        }
+    }
+
+}
@@ -0,0 +1,265 @@
+package com.celonis.challenge.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timer wheel driving all running COUNTER tasks from a single timer thread.
+ * <p>
+ * Every counter advances once per {@link #PERIOD_MILLIS}, so the wheel has exactly one rotation per period
+ * and a counter stays in the slot it was put in for its whole life. Each tick only visits the counters of
+ * one slot, which keeps the tick cost proportional to the active counters in that slot. Listener callbacks
+ * are handed off to a small worker pool so slow listeners never delay the wheel.
+ */
+@Component
+public class CounterScheduler {
+
+    public static final long PERIOD_MILLIS = 1000;
+
+    public interface Listener {
+
+        void onAdvance(String taskId, int current);
+
+        void onComplete(String taskId, int current);
+
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final long tickNanos;
+
+    private final int wheelSize;
+
+    private final int workerThreads;
+
+    private final List<Set<Counter>> slots;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private final Timer tickLag;
+
+    private ScheduledExecutorService timer;
+
+    private ExecutorService workers;
+
+    private long startNanos;
+
+    private volatile long lastTick = -1;
+
+    private volatile long lastTickLagNanos;
+
+    private volatile long maxTickLagNanos;
+
+    public CounterScheduler(MeterRegistry meterRegistry,
+                            @Value("${challenge.counter.tick-millis:50}") long tickMillis,
+                            @Value("${challenge.counter.worker-threads:2}") int workerThreads) {
+        if (tickMillis <= 0 || PERIOD_MILLIS % tickMillis != 0) {
+            throw new IllegalArgumentException("Tick must be a positive divisor of " + PERIOD_MILLIS + " ms");
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheelSize = (int) (PERIOD_MILLIS / tickMillis);
+        this.workerThreads = workerThreads;
+        this.slots = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            slots.add(ConcurrentHashMap.newKeySet());
+        }
+        this.tickLag = Timer.builder("tasks.counter.tick.lag")
+                .description("Delay between the due time of a wheel slot and its processing")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger workerIndex = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread t = new Thread(r, "counter-worker-" + workerIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "counter-wheel");
+            t.setDaemon(true);
+            return t;
+        });
+        startNanos = System.nanoTime();
+        timer.scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        workers.shutdown();
+    }
+
+    /**
+     * Starts counting from {@code from} to {@code to}, advancing by one every period.
+     */
+    public void schedule(String taskId, int from, int to, Listener listener) {
+        Counter counter = new Counter(taskId, from, to, listener);
+        // placed before it is published, so a cancel right after always looks in the right slot
+        long tick = Math.max(lastTick, 0);
+        counter.dueTick = tick + wheelSize;
+        counter.slot = (int) (tick % wheelSize);
+        if (counters.putIfAbsent(taskId, counter) != null) {
+            throw new IllegalStateException("Counter " + taskId + " is already scheduled");
+        }
+        if (from >= to) {
+            counters.remove(taskId);
+            workers.execute(() -> listener.onComplete(taskId, from));
+            return;
+        }
+        slots.get(counter.slot).add(counter);
+    }
+
+    /**
+     * Stops a scheduled counter; returns false if it was not running on this wheel.
+     */
+    public boolean cancel(String taskId) {
+        Counter counter = counters.remove(taskId);
+        if (counter == null) {
+            return false;
+        }
+        slots.get(counter.slot).remove(counter);
+        return true;
+    }
+
+    /**
+     * Tasks whose counters are on this wheel.
+     */
+    public Set<String> getTaskIds() {
+        return Collections.unmodifiableSet(counters.keySet());
+    }
+
+    public int getActiveCounters() {
+        return counters.size();
+    }
+
+    public long getLastTickLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastTickLagNanos);
+    }
+
+    public long getMaxTickLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxTickLagNanos);
+    }
+
+    private void tick() {
+        try {
+            long now = System.nanoTime();
+            long currentTick = (now - startNanos) / tickNanos;
+            // catch up on slots skipped because the timer thread was delayed
+            for (long t = lastTick + 1; t <= currentTick; t++) {
+                processSlot(t, now);
+                lastTick = t;
+            }
+        } catch (RuntimeException e) {
+            logger.error("Counter wheel tick failed", e);
+        }
+    }
+
+    private void processSlot(long tick, long now) {
+        Set<Counter> slot = slots.get((int) (tick % wheelSize));
+        if (slot.isEmpty()) {
+            return;
+        }
+        long lag = now - (startNanos + tick * tickNanos);
+        lastTickLagNanos = lag;
+        tickLag.record(lag, TimeUnit.NANOSECONDS);
+        if (lag > maxTickLagNanos) {
+            maxTickLagNanos = lag;
+        }
+
+        List<Advance> advanced = new ArrayList<>();
+        for (Counter counter : slot) {
+            if (counters.get(counter.taskId) != counter) {
+                // canceled between being published and added to the slot
+                slot.remove(counter);
+                continue;
+            }
+            if (counter.dueTick > tick) {
+                continue;
+            }
+            counter.dueTick += wheelSize;
+            int current = ++counter.current;
+            boolean done = current >= counter.to;
+            if (done) {
+                slot.remove(counter);
+                counters.remove(counter.taskId, counter);
+            }
+            advanced.add(new Advance(counter, current, done));
+        }
+        if (!advanced.isEmpty()) {
+            workers.execute(() -> publish(advanced));
+        }
+    }
+
+    private void publish(List<Advance> advanced) {
+        for (Advance advance : advanced) {
+            Counter counter = advance.counter;
+            try {
+                if (advance.done) {
+                    counter.listener.onComplete(counter.taskId, advance.current);
+                } else {
+                    counter.listener.onAdvance(counter.taskId, advance.current);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Counter listener failed for task {}", counter.taskId, e);
+            }
+        }
+    }
+
+    private static final class Counter {
+
+        private final String taskId;
+
+        private final int to;
+
+        private final Listener listener;
+
+        private volatile int current;
+
+        private volatile long dueTick;
+
+        private volatile int slot;
+
+        private Counter(String taskId, int from, int to, Listener listener) {
+            this.taskId = taskId;
+            this.current = from;
+            this.to = to;
+            this.listener = listener;
+        }
+    }
+
+    private static final class Advance {
+
+        private final Counter counter;
+
+        private final int current;
+
+        private final boolean done;
+
+        private Advance(Counter counter, int current, boolean done) {
+            this.counter = counter;
+            this.current = current;
+            this.done = done;
+        }
+    }
+}
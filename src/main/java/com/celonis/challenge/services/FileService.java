@@ -1,65 +1,321 @@
 package com.celonis.challenge.services;
 
+import com.celonis.challenge.exceptions.InternalException;
 import com.celonis.challenge.exceptions.NotFoundException;
 import com.celonis.challenge.model.ProjectGenerationTask;
 import com.celonis.challenge.model.ProjectGenerationTaskRepository;
-import org.apache.commons.io.IOUtils;
-import org.springframework.core.io.FileSystemResource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
 
-import java.io.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 @Component
 public class FileService {
 
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String ZIP_CONTENT_TYPE = "application/zip";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
     private final ProjectGenerationTaskRepository projectGenerationTaskRepository;
 
-    public FileService(ProjectGenerationTaskRepository projectGenerationTaskRepository) {
+    private final ResultStore resultStore;
+
+    private final WorkQueue workQueue;
+
+    private final int chunkSize;
+
+    private final Counter bytesServed;
+
+    private final Counter regenerated;
+
+    /**
+     * Regenerations in progress by the location they replace, so concurrent misses share one.
+     */
+    private final Map<String, Regeneration> regenerations = new ConcurrentHashMap<>();
+
+    public FileService(ProjectGenerationTaskRepository projectGenerationTaskRepository,
+                       ResultStore resultStore,
+                       WorkQueue workQueue,
+                       MeterRegistry meterRegistry,
+                       @Value("${challenge.results.copy-chunk-bytes:65536}") int chunkSize) {
         this.projectGenerationTaskRepository = projectGenerationTaskRepository;
+        this.resultStore = resultStore;
+        this.workQueue = workQueue;
+        this.chunkSize = chunkSize;
+        this.bytesServed = Counter.builder("tasks.results.served")
+                .description("Result bytes sent to clients")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.regenerated = Counter.builder("tasks.results.regenerated")
+                .description("Evicted results, or results stored by another node, generated again on download")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The template every project generation produces its archive from.
+     */
+    static URL projectArchive() {
+        URL url = Thread.currentThread().getContextClassLoader().getResource("challenge.zip");
+        if (url == null) {
+            throw new InternalException("Zip file not found");
+        }
+        return url;
     }
 
-    public ResponseEntity<FileSystemResource> getTaskResult(String taskId) {
+    /**
+     * Writes the result of a task to the response, honouring {@code If-None-Match} against the content digest
+     * and a single-part {@code Range}. The bytes go out through the container's sendfile support on the
+     * segment file when available, which never copies them into the JVM. Otherwise they are written from
+     * memory-mapped slices of it, which saves reading the file but still copies every chunk through the
+     * servlet stream's heap buffer. A result evicted from the store, or only stored by another node, is
+     * generated again first.
+     */
+    public void getTaskResult(String taskId, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
         ProjectGenerationTask task = projectGenerationTaskRepository.findById(taskId)
                 .orElseThrow(NotFoundException::new);
 
-        String path = task.getStorageLocation();
-        if (path == null) {
+        String location = task.getStorageLocation();
+        if (location == null) {
             throw new NotFoundException();
         }
 
-        File file = new File(path);
-        if (!file.exists() || !file.isFile()) {
+        ResultStore.Blob blob = resultStore.find(location);
+        if (blob != null && !blob.isStored()) {
+            blob = resultStore.find(regenerate(taskId, location));
+        }
+        if (blob == null || !blob.isStored()) {
             throw new NotFoundException();
         }
 
-        FileSystemResource body = new FileSystemResource(file);
+        String etag = "\"" + blob.getDigest() + "\"";
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
+        }
+
+        long length = blob.getSize();
+        long start = 0;
+        long end = length - 1;
+        HttpRange range = requestedRange(request, etag);
+        if (range != null) {
+            start = range.getRangeStart(length);
+            end = range.getRangeEnd(length);
+            if (start >= length || start > end) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-        headers.setContentLength(file.length());
-        headers.setContentDispositionFormData("attachment", file.getName());
+        long count = end - start + 1;
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(count);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.builder("attachment").filename(taskId + ".zip").build().toString());
+        if (HttpMethod.HEAD.matches(request.getMethod()) || count == 0) {
+            return;
+        }
+        bytesServed.increment(count);
 
-        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, blob.getSegmentFile().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, blob.getOffset() + start);
+            request.setAttribute(SENDFILE_END, blob.getOffset() + end + 1);
+            return;
+        }
+        resultStore.transferTo(blob, start, count, Channels.newChannel(response.getOutputStream()));
     }
 
-    public void storeResult(String taskId, URL url) throws IOException {
-        ProjectGenerationTask task = projectGenerationTaskRepository.findById(taskId)
-                .orElseThrow(NotFoundException::new);
+    /**
+     * Generates the evicted or remote result of a task again and returns its new location. Concurrent misses on
+     * the same location wait for one regeneration. The content normally comes out identical and restores the
+     * blob in place; if the template changed meanwhile, the task is moved to the new blob.
+     */
+    private String regenerate(String taskId, String location) throws IOException {
+        Regeneration regeneration = new Regeneration();
+        Regeneration running = regenerations.putIfAbsent(location, regeneration);
+        String stored;
+        if (running == null) {
+            try {
+                // the reference taken by store() keeps the blob alive until the task holds its own
+                stored = resultStore.store(projectArchive(), new CancellationToken());
+                regenerated.increment();
+                regeneration.stored.complete(stored);
+            } catch (IOException | RuntimeException e) {
+                regeneration.stored.completeExceptionally(e);
+                throw e;
+            } finally {
+                regenerations.remove(location, regeneration);
+            }
+            try {
+                moveTo(taskId, location, stored);
+            } finally {
+                regeneration.release(stored);
+            }
+        } else {
+            try {
+                stored = running.stored.join();
+            } catch (CompletionException e) {
+                throw new InternalException("Regenerating the result failed: " + e.getCause().getMessage());
+            }
+            if (!running.retain(stored)) {
+                // the regeneration already dropped its reference, and the blob may have gone with it
+                return regenerate(taskId, location);
+            }
+            try {
+                moveTo(taskId, location, stored);
+            } finally {
+                resultStore.release(stored);
+            }
+        }
+        logger.debug("Regenerated result {} of task {} as {}", location, taskId, stored);
+        return stored;
+    }
+
+    private void moveTo(String taskId, String location, String stored) {
+        if (stored.equals(location) || !resultStore.retain(stored)) {
+            return;
+        }
+        if (projectGenerationTaskRepository.replaceStorageLocation(taskId, location, stored) == 1) {
+            resultStore.release(location);
+        } else {
+            resultStore.release(stored);
+        }
+    }
+
+    /**
+     * The single range to serve, or null for the whole file: multipart ranges and ranges guarded by a stale
+     * {@code If-Range} are answered with the full content.
+     */
+    private static HttpRange requestedRange(HttpServletRequest request, String etag) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(header);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-        File outputFile = File.createTempFile(taskId, ".zip");
-        outputFile.deleteOnExit();
+    /**
+     * Builds the project archive from the entries of {@code template} straight into the response, one chunk
+     * at a time, without touching the disk. The headers and the first entry go out right away. The token is
+     * checked between chunks; on cancel or failure the archive is left without its central directory, so
+     * the client can tell it is incomplete.
+     */
+    public void writeArchive(String taskId, URL template, HttpServletResponse response, CancellationToken token)
+            throws IOException {
+        response.setContentType(ZIP_CONTENT_TYPE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.builder("attachment").filename(taskId + ".zip").build().toString());
+        // not closed on failure, closing would finish the archive and make a partial one look complete
+        ZipOutputStream out = new ZipOutputStream(response.getOutputStream());
+        byte[] buffer = new byte[chunkSize];
+        boolean first = true;
+        try (ZipInputStream in = new ZipInputStream(template.openStream())) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                token.throwIfCanceled();
+                ZipEntry copy = new ZipEntry(entry.getName());
+                copy.setTime(entry.getTime());
+                out.putNextEntry(copy);
+                if (first) {
+                    response.flushBuffer();
+                    first = false;
+                }
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                    bytesServed.increment(read);
+                    token.throwIfCanceled();
+                }
+                out.closeEntry();
+            }
+        }
+        out.finish();
+    }
 
-        try (InputStream is = url.openStream();
-             OutputStream os = new FileOutputStream(outputFile)) {
-            IOUtils.copy(is, os);
+    /**
+     * Stores the result of a task. If the token gets canceled the copy stops, nothing is attached to the task
+     * and a {@link java.util.concurrent.CancellationException} is thrown. The result is only attached while
+     * this node still holds the lease of the running task; otherwise it is released again.
+     */
+    public void storeResult(String taskId, URL url, CancellationToken token) throws IOException {
+        if (!projectGenerationTaskRepository.existsById(taskId)) {
+            throw new NotFoundException();
         }
 
-        task.setStorageLocation(outputFile.getAbsolutePath());
-        projectGenerationTaskRepository.save(task);
+        String location = resultStore.store(url, token);
+        if (token.isCanceled()) {
+            resultStore.release(location);
+            token.throwIfCanceled();
+        }
+        if (projectGenerationTaskRepository.attachStorageLocation(taskId, workQueue.getNodeId(), location) == 0) {
+            resultStore.release(location);
+            logger.info("Task {} was deleted, canceled or taken over while storing its result", taskId);
+        }
+    }
+
+    public void deleteResult(ProjectGenerationTask task) {
+        resultStore.release(task.getStorageLocation());
+    }
+
+    /**
+     * A regeneration in progress. The downloads waiting for it take their own reference to the stored blob
+     * while the regeneration still holds its one, under the same lock it gives that reference up with, so the
+     * blob cannot be deleted between the regeneration finishing and a waiting download using it.
+     */
+    private final class Regeneration {
+
+        private final CompletableFuture<String> stored = new CompletableFuture<>();
+
+        private boolean released;
+
+        synchronized boolean retain(String location) {
+            return !released && resultStore.retain(location);
+        }
+
+        synchronized void release(String location) {
+            released = true;
+            resultStore.release(location);
+        }
     }
 }
@@ -0,0 +1,82 @@
+package com.celonis.challenge.services;
+
+import com.celonis.challenge.exceptions.ConflictException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the outcome of requests sent with an {@code Idempotency-Key}, so a client retrying after a
+ * timeout gets the original outcome back instead of repeating the side effect.
+ * <p>
+ * Keys belong to the client that sent them, are bounded in number and expire a while after they were first
+ * used. The first request with a key leaves an outcome in flight and runs outside of any cache lock;
+ * concurrent requests with the same key wait for it. Failures are not remembered, so a request that failed
+ * can be retried with the same key.
+ */
+@Component
+public class IdempotencyCache {
+
+    private final Cache<String, Outcome> outcomes;
+
+    public IdempotencyCache(@Value("${challenge.idempotency.max-keys:100000}") long maxKeys,
+                            @Value("${challenge.idempotency.ttl:PT24H}") Duration ttl) {
+        this.outcomes = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * Runs {@code action} unless the client already used the key in the given scope, in which case the earlier
+     * result is returned. Reusing a key for a request with another {@code fingerprint} is a conflict. Without
+     * a key the action always runs.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String client, String scope, String key, Object fingerprint, Supplier<T> action) {
+        if (key == null) {
+            return action.get();
+        }
+        String cacheKey = client + ':' + scope + ':' + key;
+        Outcome outcome = new Outcome(fingerprint);
+        Outcome first = outcomes.asMap().putIfAbsent(cacheKey, outcome);
+        if (first == null) {
+            try {
+                T value = action.get();
+                outcome.value.complete(value);
+                return value;
+            } catch (RuntimeException | Error e) {
+                outcomes.asMap().remove(cacheKey, outcome);
+                outcome.value.completeExceptionally(e);
+                throw e;
+            }
+        }
+        if (!Objects.equals(first.fingerprint, fingerprint)) {
+            throw new ConflictException("Idempotency-Key " + key + " was already used for a different request");
+        }
+        try {
+            return (T) first.value.join();
+        } catch (CompletionException e) {
+            // the first request failed and left nothing behind, run this one instead
+            return execute(client, scope, key, fingerprint, action);
+        }
+    }
+
+    private static final class Outcome {
+
+        private final Object fingerprint;
+
+        private final CompletableFuture<Object> value = new CompletableFuture<>();
+
+        private Outcome(Object fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+}
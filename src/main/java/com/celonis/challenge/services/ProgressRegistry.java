@@ -0,0 +1,133 @@
+package com.celonis.challenge.services;
+
+import com.celonis.challenge.model.TaskStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory view of the progress of running tasks.
+ * <p>
+ * Progress updates only replace an immutable snapshot and mark the task dirty; a background flusher writes
+ * the latest snapshot of every dirty task to the database in JDBC batches. A task ticking many times between
+ * two flushes therefore costs a single UPDATE. Only tasks this node still holds the lease of are written, so a
+ * node that lost a task to another one cannot overwrite the progress of the new owner.
+ * <p>
+ * The flushed progress is the checkpoint a counter resumes from when it is claimed again, after a restart or
+ * by another node, so the flush interval bounds the progress such a takeover loses.
+ */
+@Component
+public class ProgressRegistry {
+
+    private static final String FLUSH_SQL = "update project_generation_task set current = ?, progress_pct = ? " +
+            "where id = ? and status = '" + TaskStatus.RUNNING.name() + "' and lease_owner = ?";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final WorkQueue workQueue;
+
+    private final int batchSize;
+
+    private final Map<String, Progress> entries = new ConcurrentHashMap<>();
+
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    public ProgressRegistry(JdbcTemplate jdbcTemplate,
+                            WorkQueue workQueue,
+                            @Value("${challenge.progress.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.workQueue = workQueue;
+        this.batchSize = batchSize;
+    }
+
+    public void update(String taskId, TaskStatus status, Integer current, Float progressPct) {
+        entries.put(taskId, new Progress(status, current, progressPct));
+        dirty.add(taskId);
+    }
+
+    public Progress get(String taskId) {
+        return entries.get(taskId);
+    }
+
+    /**
+     * Drops a task from the registry without flushing it, used once its final state has been persisted.
+     */
+    public void remove(String taskId) {
+        dirty.remove(taskId);
+        entries.remove(taskId);
+    }
+
+    @Scheduled(fixedDelayString = "${challenge.progress.flush-interval-ms:1000}")
+    public void flush() {
+        List<Object[]> batch = new ArrayList<>();
+        Iterator<String> it = dirty.iterator();
+        while (it.hasNext()) {
+            String taskId = it.next();
+            it.remove();
+            Progress progress = entries.get(taskId);
+            if (progress != null) {
+                batch.add(new Object[]{progress.getCurrent(), progress.getProgressPct(), taskId,
+                        workQueue.getNodeId()});
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            for (int from = 0; from < batch.size(); from += batchSize) {
+                List<Object[]> chunk = batch.subList(from, Math.min(from + batchSize, batch.size()));
+                jdbcTemplate.batchUpdate(FLUSH_SQL, chunk,
+                        new int[]{Types.INTEGER, Types.REAL, Types.VARCHAR, Types.VARCHAR});
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to flush progress of {} tasks", batch.size(), e);
+            batch.forEach(row -> dirty.add((String) row[2]));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    public static final class Progress {
+
+        private final TaskStatus status;
+
+        private final Integer current;
+
+        private final Float progressPct;
+
+        private Progress(TaskStatus status, Integer current, Float progressPct) {
+            this.status = status;
+            this.current = current;
+            this.progressPct = progressPct;
+        }
+
+        public TaskStatus getStatus() {
+            return status;
+        }
+
+        public Integer getCurrent() {
+            return current;
+        }
+
+        public Float getProgressPct() {
+            return progressPct;
+        }
+    }
+}
@@ -0,0 +1,633 @@
+package com.celonis.challenge.services;
+
+import com.celonis.challenge.model.BlobLocationView;
+import com.celonis.challenge.model.ResultBlobRepository;
+import com.celonis.challenge.model.ResultCopy;
+import com.celonis.challenge.model.ResultCopyRepository;
+import com.celonis.challenge.model.SegmentUsageView;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store for task results, kept in large append-only segment files.
+ * <p>
+ * Results are kept once per distinct content under their SHA-256 digest and reference counted in the
+ * {@code ResultBlob} table, so tasks producing identical bytes share one blob, and the blob is dropped when
+ * the last task referencing it goes away. The digest of every source is remembered, so storing a source
+ * whose content is already present only bumps the reference count instead of copying it again.
+ * <p>
+ * New content is appended to the active segment, which is sealed and replaced once it reaches the segment
+ * size; the {@code ResultCopy} rows are the offset index into the segments, and the location handed out to
+ * tasks is the digest. Reads go through memory-mapped slices of the segments. Released blobs leave dead
+ * bytes behind; a background compaction copies the live blobs of mostly dead segments to the active one and
+ * deletes the old segment once readers that may still use it are done.
+ * <p>
+ * The stored content is bounded by a byte budget. Which blobs keep their content is decided by a Caffeine
+ * cache weighted by blob size, whose W-TinyLFU policy favours both recently and frequently read results. An
+ * evicted blob keeps its row and references but loses its content, which compaction then reclaims; callers
+ * find it with {@link Blob#isStored()} false and are expected to generate the content again.
+ * <p>
+ * Segments are local to the node writing them, so every node keeps its own copies under its node id, and
+ * deduplication, eviction, compaction and orphan reclaim only ever look at the copies of this node. A blob
+ * stored by another node is not stored here until this node generated its content too.
+ */
+@Component
+public class ResultStore {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private static final String UPLOAD_PREFIX = "upload-";
+
+    /**
+     * Largest slice of the active segment mapped at once; sealed segments are mapped whole.
+     */
+    private static final int MAP_WINDOW_BYTES = 16 * 1024 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ResultBlobRepository resultBlobRepository;
+
+    private final ResultCopyRepository resultCopyRepository;
+
+    private final String nodeId;
+
+    private final Path root;
+
+    private final int chunkSize;
+
+    private final long segmentBytes;
+
+    private final double compactionThreshold;
+
+    private final Duration segmentGrace;
+
+    /**
+     * Digest of the last content stored from each source, with the modification time and length it had then.
+     */
+    private final Map<String, KnownSource> knownSources = new ConcurrentHashMap<>();
+
+    private final Map<Long, MappedByteBuffer> mappings = new ConcurrentHashMap<>();
+
+    private final Map<Long, Long> retired = new ConcurrentHashMap<>();
+
+    /**
+     * Blobs whose content is stored, with their size; eviction from it drops the content.
+     */
+    private final Cache<String, Long> resident;
+
+    private final long maxResidentKiB;
+
+    private final Object appendLock = new Object();
+
+    private final Counter bytesWritten;
+
+    private final Counter bytesCompacted;
+
+    private final Counter bytesEvicted;
+
+    private long nextSegment;
+
+    private FileChannel activeChannel;
+
+    private long activeSize;
+
+    private volatile long activeSegment = -1;
+
+    public ResultStore(ResultBlobRepository resultBlobRepository,
+                       ResultCopyRepository resultCopyRepository,
+                       WorkQueue workQueue,
+                       MeterRegistry meterRegistry,
+                       @Value("${challenge.results.dir:${java.io.tmpdir}/challenge-results}") String root,
+                       @Value("${challenge.results.copy-chunk-bytes:65536}") int chunkSize,
+                       @Value("${challenge.results.segment-bytes:268435456}") long segmentBytes,
+                       @Value("${challenge.results.compaction-threshold:0.5}") double compactionThreshold,
+                       @Value("${challenge.results.segment-grace:PT1M}") Duration segmentGrace,
+                       @Value("${challenge.results.cache-bytes:10737418240}") long cacheBytes) throws IOException {
+        if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + Integer.MAX_VALUE + " bytes");
+        }
+        this.resultBlobRepository = resultBlobRepository;
+        this.resultCopyRepository = resultCopyRepository;
+        this.nodeId = workQueue.getNodeId();
+        this.root = Files.createDirectories(Paths.get(root));
+        this.chunkSize = chunkSize;
+        this.segmentBytes = segmentBytes;
+        this.compactionThreshold = compactionThreshold;
+        this.segmentGrace = segmentGrace;
+        // never append to segments of an earlier run, the blobs they hold may still be indexed
+        try (Stream<Path> files = Files.list(this.root)) {
+            this.nextSegment = files.mapToLong(ResultStore::segmentIdOf).filter(id -> id >= 0).max().orElse(0) + 1;
+        }
+        this.bytesWritten = Counter.builder("tasks.results.written")
+                .description("Result bytes copied into the store")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.bytesCompacted = Counter.builder("tasks.results.compacted")
+                .description("Live result bytes moved out of mostly dead segments")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.bytesEvicted = Counter.builder("tasks.results.evicted")
+                .description("Result bytes dropped to stay within the cache budget")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        // weighed in KiB, a blob may be larger than an int number of bytes
+        this.maxResidentKiB = Math.max(1, cacheBytes / 1024);
+        this.resident = Caffeine.newBuilder()
+                .maximumWeight(maxResidentKiB)
+                .<String, Long>weigher((digest, size) -> (int) Math.min(Integer.MAX_VALUE, kib(size)))
+                .removalListener((digest, size, cause) -> {
+                    if (cause.wasEvicted()) {
+                        evict(digest, size);
+                    }
+                })
+                .executor(Runnable::run)
+                .build();
+    }
+
+    @PostConstruct
+    public void init() {
+        // copies in segments that are gone, with a wiped result directory, have to be generated again
+        for (ResultCopy copy : resultCopyRepository.findByNode(nodeId)) {
+            if (Files.exists(segmentPath(copy.getSegment()))) {
+                admit(copy.getDigest(), copy.getSize());
+            } else {
+                resultCopyRepository.deleteByDigestAndNode(copy.getDigest(), nodeId);
+            }
+        }
+    }
+
+    /**
+     * Stores the content behind {@code source} and returns the location of the blob holding it. The caller
+     * owns one reference to the blob and must {@link #release(String)} it when done.
+     * <p>
+     * The content is staged in a temporary file while its digest is computed, copied in chunks over
+     * interruptible channels with the token checked between chunks, so a cancel stops the copy within one
+     * chunk; the partial upload is removed and a {@link CancellationException} is thrown. Only content the
+     * node does not hold yet, because it is new, was evicted or was stored by another node, is then appended
+     * to the active segment. A source whose modification time and length are the same as when its content was
+     * last stored here is not read again; one that reports neither is read every time.
+     */
+    public String store(URL source, CancellationToken token) throws IOException {
+        URLConnection connection = source.openConnection();
+        String sourceKey = source.toExternalForm();
+        String version = version(connection);
+        KnownSource known = knownSources.get(sourceKey);
+        if (version != null && known != null && version.equals(known.version) && isStored(known.digest)
+                && resultBlobRepository.retain(known.digest) > 0) {
+            connection.getInputStream().close();
+            return known.digest;
+        }
+
+        Path upload = Files.createTempFile(root, UPLOAD_PREFIX, ".tmp");
+        try {
+            MessageDigest messageDigest = sha256();
+            long size = 0;
+            try (ReadableByteChannel in = Channels.newChannel(
+                    new DigestInputStream(connection.getInputStream(), messageDigest));
+                 FileChannel out = FileChannel.open(upload, StandardOpenOption.WRITE)) {
+                long transferred;
+                do {
+                    token.throwIfCanceled();
+                    transferred = out.transferFrom(in, size, chunkSize);
+                    size += transferred;
+                } while (transferred > 0);
+                token.throwIfCanceled();
+            }
+
+            String digest = String.format("%064x", new BigInteger(1, messageDigest.digest()));
+            boolean referenced = resultBlobRepository.retain(digest) > 0;
+            while (!referenced) {
+                // inserted with the caller's reference, unless another store inserted it first; then retain that
+                referenced = resultBlobRepository.insert(digest, size, new Date()) > 0
+                        || resultBlobRepository.retain(digest) > 0;
+            }
+            if (!isStored(digest)) {
+                long[] location;
+                try (FileChannel in = FileChannel.open(upload, StandardOpenOption.READ)) {
+                    location = append(in, 0, size);
+                }
+                bytesWritten.increment(size);
+                // a copy losing to a concurrent store of the same content on this node is left to compaction
+                if (resultCopyRepository.insert(digest, nodeId, location[0], location[1], size) > 0) {
+                    admit(digest, size);
+                } else {
+                    logger.debug("Result {} was stored concurrently on node {}", digest, nodeId);
+                }
+            }
+            if (version != null) {
+                knownSources.put(sourceKey, new KnownSource(version, digest));
+            }
+            return digest;
+        } finally {
+            Files.deleteIfExists(upload);
+        }
+    }
+
+    /**
+     * Drops one reference to the blob at {@code location}. Once nobody references it anymore the copies of
+     * all nodes go with it, and their bytes are reclaimed by each node's compaction.
+     */
+    public void release(String location) {
+        if (location == null) {
+            return;
+        }
+        if (resultBlobRepository.release(location) > 0 && resultBlobRepository.deleteIfUnreferenced(location) > 0) {
+            resultCopyRepository.deleteByDigest(location);
+            resident.invalidate(location);
+        }
+    }
+
+    /**
+     * Takes one more reference to the blob at {@code location}; returns false if there is no such blob.
+     */
+    public boolean retain(String location) {
+        return resultBlobRepository.retain(location) > 0;
+    }
+
+    /**
+     * The blob at {@code location}, or null if there is none. Counts as a use of the blob for the cache. A
+     * blob this node holds no copy of is returned as not stored.
+     */
+    public Blob find(String location) {
+        resident.getIfPresent(location);
+        Blob blob = resultCopyRepository.findLocationByDigestAndNode(location, nodeId)
+                .map(copy -> new Blob(copy, segmentPath(copy.getSegment())))
+                .orElse(null);
+        if (blob == null && resultBlobRepository.existsById(location)) {
+            blob = new Blob(location);
+        }
+        return blob;
+    }
+
+    /**
+     * Writes {@code count} bytes of the blob starting at {@code start} to {@code out} from memory-mapped
+     * slices of its segment. Whether that avoids the heap depends on {@code out}: a channel over a plain
+     * stream copies every slice into a heap array first.
+     */
+    public void transferTo(Blob blob, long start, long count, WritableByteChannel out) throws IOException {
+        long position = blob.getOffset() + start;
+        long end = position + count;
+        while (position < end) {
+            int length = (int) Math.min(end - position, MAP_WINDOW_BYTES);
+            ByteBuffer window = window(blob.getSegment(), position, length);
+            while (window.hasRemaining()) {
+                out.write(window);
+            }
+            position += length;
+        }
+    }
+
+    /**
+     * Moves the live blobs out of sealed segments whose share of live bytes dropped below the compaction
+     * threshold, and deletes the segments compacted by an earlier run once the grace period passed.
+     */
+    @Scheduled(fixedDelayString = "${challenge.results.compaction-interval-ms:60000}")
+    public void compact() {
+        try {
+            deleteRetired();
+            long cutoff = System.currentTimeMillis() - segmentGrace.toMillis();
+            Map<Long, Long> liveBytes = resultCopyRepository.sumSizeBySegment(nodeId).stream()
+                    .collect(Collectors.toMap(SegmentUsageView::getSegment, SegmentUsageView::getLiveBytes));
+            for (Path file : segmentFiles()) {
+                long segment = segmentIdOf(file);
+                if (segment == activeSegment || retired.containsKey(segment)
+                        || Files.getLastModifiedTime(file).toMillis() >= cutoff) {
+                    continue;
+                }
+                long size = Files.size(file);
+                if (liveBytes.getOrDefault(segment, 0L) < size * compactionThreshold) {
+                    compact(segment, file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Result segment compaction failed", e);
+        }
+    }
+
+    /**
+     * Deletes segments no copy of this node references (left behind by a crash or by a restart against a fresh
+     * database) and stale partial uploads. Only files older than {@code grace} are touched, so uploads and
+     * appends in flight are left alone. Returns the number of bytes freed.
+     */
+    public long reclaimOrphans(Duration grace) throws IOException {
+        long cutoff = System.currentTimeMillis() - grace.toMillis();
+        List<Path> candidates;
+        try (Stream<Path> files = Files.list(root)) {
+            candidates = files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        long reclaimed = 0;
+        for (Path file : candidates) {
+            try {
+                if (Files.getLastModifiedTime(file).toMillis() >= cutoff) {
+                    continue;
+                }
+                long segment = segmentIdOf(file);
+                boolean orphan = segment < 0
+                        ? file.getFileName().toString().startsWith(UPLOAD_PREFIX)
+                        : segment != activeSegment && !retired.containsKey(segment)
+                        && !resultCopyRepository.existsByNodeAndSegment(nodeId, segment);
+                if (orphan) {
+                    reclaimed += delete(file, segment);
+                }
+            } catch (NoSuchFileException e) {
+                // deleted concurrently
+            }
+        }
+        return reclaimed;
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        synchronized (appendLock) {
+            if (activeChannel != null) {
+                activeChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Modification time and length of the source, or null if it does not report them.
+     */
+    private static String version(URLConnection connection) {
+        long lastModified = connection.getLastModified();
+        long length = connection.getContentLengthLong();
+        return lastModified > 0 && length >= 0 ? lastModified + "/" + length : null;
+    }
+
+    private boolean isStored(String digest) {
+        return resultCopyRepository.findLocationByDigestAndNode(digest, nodeId).isPresent();
+    }
+
+    /**
+     * Puts a stored blob under the cache budget. A blob larger than the whole budget would be evicted right
+     * away and could never be downloaded, so it is kept until released instead.
+     */
+    private void admit(String digest, long size) {
+        if (kib(size) <= maxResidentKiB) {
+            resident.put(digest, size);
+        }
+    }
+
+    private static long kib(long bytes) {
+        return (bytes + 1023) / 1024;
+    }
+
+    private void evict(String digest, long size) {
+        if (resultCopyRepository.deleteByDigestAndNode(digest, nodeId) > 0) {
+            bytesEvicted.increment(size);
+            logger.debug("Evicted result {} of {} bytes", digest, size);
+        }
+    }
+
+    private void compact(long segment, Path file) throws IOException {
+        long moved = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (ResultCopy copy : resultCopyRepository.findByNodeAndSegmentOrderBySegmentOffset(nodeId, segment)) {
+                long[] location = append(in, copy.getSegmentOffset(), copy.getSize());
+                // a copy dropped meanwhile leaves its new bytes dead in the active segment
+                if (resultCopyRepository.relocate(copy.getDigest(), nodeId, segment, copy.getSegmentOffset(),
+                        location[0], location[1]) > 0) {
+                    moved += copy.getSize();
+                }
+            }
+        }
+        bytesCompacted.increment(moved);
+        retired.put(segment, System.currentTimeMillis());
+        logger.info("Compacted result segment {}, moved {} live bytes", segment, moved);
+    }
+
+    /**
+     * Readers look a blob up and then read its segment, so a compacted segment is only deleted once the
+     * grace period has passed since its blobs were moved.
+     */
+    private void deleteRetired() throws IOException {
+        long cutoff = System.currentTimeMillis() - segmentGrace.toMillis();
+        for (Map.Entry<Long, Long> entry : retired.entrySet()) {
+            if (entry.getValue() < cutoff) {
+                delete(segmentPath(entry.getKey()), entry.getKey());
+                retired.remove(entry.getKey());
+            }
+        }
+    }
+
+    private long delete(Path file, long segment) throws IOException {
+        if (segment >= 0) {
+            mappings.remove(segment);
+        }
+        long size = Files.size(file);
+        return Files.deleteIfExists(file) ? size : 0;
+    }
+
+    /**
+     * Appends {@code size} bytes of {@code source} starting at {@code position} to the active segment and
+     * returns the segment and offset they landed at. A new segment is started first when the bytes do not
+     * fit into the active one anymore.
+     */
+    private long[] append(FileChannel source, long position, long size) throws IOException {
+        synchronized (appendLock) {
+            if (activeChannel == null || (activeSize > 0 && activeSize + size > segmentBytes)) {
+                roll();
+            }
+            long offset = activeSize;
+            long copied = 0;
+            while (copied < size) {
+                long transferred = activeChannel.transferFrom(source.position(position + copied), offset + copied,
+                        size - copied);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of content after " + copied + " of " + size + " bytes");
+                }
+                copied += transferred;
+            }
+            activeSize += size;
+            return new long[]{activeSegment, offset};
+        }
+    }
+
+    private void roll() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.close();
+        }
+        long segment = nextSegment++;
+        activeChannel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        activeSize = 0;
+        activeSegment = segment;
+    }
+
+    /**
+     * A read-only view of {@code length} bytes of a segment. Sealed segments never change, so they are mapped
+     * once and shared by all readers; the active segment is mapped per read.
+     */
+    private ByteBuffer window(long segment, long position, int length) throws IOException {
+        MappedByteBuffer mapped = segment != activeSegment ? mappings.computeIfAbsent(segment, mapSegment()) : null;
+        if (mapped != null) {
+            ByteBuffer window = mapped.duplicate();
+            window.limit((int) position + length).position((int) position);
+            return window;
+        }
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+    }
+
+    /**
+     * Maps a whole segment, or returns null for a segment too large for one mapping (a single blob bigger
+     * than the segment size gets a segment of its own).
+     */
+    private Function<Long, MappedByteBuffer> mapSegment() {
+        return segment -> {
+            try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    return null;
+                }
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot map result segment " + segment, e);
+            }
+        };
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(root)) {
+            return files.filter(file -> segmentIdOf(file) >= 0).collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return root.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Id of the segment stored in {@code file}, or -1 if it is not a segment.
+     */
+    private static long segmentIdOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Where the content of a blob lives: {@code size} bytes at {@code offset} in the segment file.
+     */
+    private static final class KnownSource {
+
+        private final String version;
+
+        private final String digest;
+
+        KnownSource(String version, String digest) {
+            this.version = version;
+            this.digest = digest;
+        }
+    }
+
+    public static final class Blob {
+
+        private final String digest;
+
+        private final long segment;
+
+        private final long offset;
+
+        private final long size;
+
+        private final Path segmentFile;
+
+        private Blob(BlobLocationView blob, Path segmentFile) {
+            this.digest = blob.getDigest();
+            this.segment = blob.getSegment();
+            this.offset = blob.getSegmentOffset();
+            this.size = blob.getSize();
+            this.segmentFile = segmentFile;
+        }
+
+        private Blob(String digest) {
+            this.digest = digest;
+            this.segment = -1;
+            this.offset = 0;
+            this.size = 0;
+            this.segmentFile = null;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public long getSegment() {
+            return segment;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Path getSegmentFile() {
+            return segmentFile;
+        }
+
+        /**
+         * False once the content was evicted, or if it was only stored by another node; it has to be generated
+         * again before it can be read.
+         */
+        public boolean isStored() {
+            return segment >= 0;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.celonis.challenge.services;
+
+import com.celonis.challenge.model.ProjectGenerationTaskRepository;
+import com.celonis.challenge.model.TaskStatus;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Periodically deletes tasks that were created but never executed.
+ * <p>
+ * Stale tasks are deleted in chunks: each chunk selects the ids of the oldest PENDING tasks through the
+ * (status, creationDate) index and removes them with one bulk DELETE, with a pause between chunks so the
+ * purge never holds the table for long. Result files nobody references anymore are reclaimed afterwards.
+ */
+@Component
+public class TaskCleanupJob {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ProjectGenerationTaskRepository projectGenerationTaskRepository;
+
+    private final ResultStore resultStore;
+
+    private final Duration maxAge;
+
+    private final int chunkSize;
+
+    private final long chunkPauseMillis;
+
+    private final Duration orphanGrace;
+
+    private final DistributionSummary rowsPerRun;
+
+    private final DistributionSummary bytesPerRun;
+
+    public TaskCleanupJob(ProjectGenerationTaskRepository projectGenerationTaskRepository,
+                          ResultStore resultStore,
+                          MeterRegistry meterRegistry,
+                          @Value("${challenge.cleanup.max-age:P7D}") Duration maxAge,
+                          @Value("${challenge.cleanup.chunk-size:1000}") int chunkSize,
+                          @Value("${challenge.cleanup.chunk-pause-ms:100}") long chunkPauseMillis,
+                          @Value("${challenge.cleanup.orphan-grace:PT1H}") Duration orphanGrace) {
+        this.projectGenerationTaskRepository = projectGenerationTaskRepository;
+        this.resultStore = resultStore;
+        this.maxAge = maxAge;
+        this.chunkSize = chunkSize;
+        this.chunkPauseMillis = chunkPauseMillis;
+        this.orphanGrace = orphanGrace;
+        this.rowsPerRun = DistributionSummary.builder("tasks.cleanup.rows")
+                .description("Stale tasks deleted per cleanup run")
+                .register(meterRegistry);
+        this.bytesPerRun = DistributionSummary.builder("tasks.cleanup.bytes")
+                .description("Result bytes reclaimed per cleanup run")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${challenge.cleanup.interval-ms:3600000}",
+            initialDelayString = "${challenge.cleanup.initial-delay-ms:60000}")
+    public void purge() {
+        Date before = new Date(System.currentTimeMillis() - maxAge.toMillis());
+        long rows = 0;
+        long bytes = 0;
+        try {
+            List<String> ids;
+            do {
+                ids = projectGenerationTaskRepository.findIdsByStatusCreatedBefore(TaskStatus.PENDING, before,
+                        PageRequest.of(0, chunkSize));
+                if (!ids.isEmpty()) {
+                    rows += projectGenerationTaskRepository.deleteByIdInAndStatus(ids, TaskStatus.PENDING);
+                    if (ids.size() == chunkSize) {
+                        Thread.sleep(chunkPauseMillis);
+                    }
+                }
+            } while (ids.size() == chunkSize);
+            bytes = resultStore.reclaimOrphans(orphanGrace);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Task cleanup failed after deleting {} tasks", rows, e);
+        } finally {
+            rowsPerRun.record(rows);
+            bytesPerRun.record(bytes);
+        }
+        logger.info("Task cleanup deleted {} tasks never executed since {} and reclaimed {} bytes", rows, before,
+                bytes);
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.celonis.challenge.services;
+
+import com.celonis.challenge.api.model.TaskProgress;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Fans task progress events out to SSE subscribers.
+ * <p>
+ * Updates for a task nobody listens to are dropped right away. Otherwise only the latest pending update per
+ * task is kept, serialized once and written to every subscriber of that task from a small dispatch pool,
+ * so neither a burst of ticks nor a slow client holds up the caller. Tasks are striped over single-threaded
+ * dispatchers to keep the events of one task in order, the snapshot a new subscriber starts with included.
+ * <p>
+ * Events are published by the node that makes a transition, so subscribers of tasks running on another node
+ * are fed by {@link TaskService#publishRemoteProgress()} from the task rows.
+ */
+@Component
+public class TaskEventHub {
+
+    private static final String EVENT_NAME = "progress";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ObjectMapper objectMapper;
+
+    private final long timeoutMillis;
+
+    private final ExecutorService[] dispatchers;
+
+    private final Map<String, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    private final Map<String, TaskProgress> pending = new ConcurrentHashMap<>();
+
+    public TaskEventHub(ObjectMapper objectMapper,
+                        @Value("${challenge.events.timeout-ms:1800000}") long timeoutMillis,
+                        @Value("${challenge.events.dispatch-threads:2}") int dispatchThreads) {
+        this.objectMapper = objectMapper;
+        this.timeoutMillis = timeoutMillis;
+        this.dispatchers = new ExecutorService[dispatchThreads];
+        for (int i = 0; i < dispatchThreads; i++) {
+            String name = "task-events-" + (i + 1);
+            dispatchers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Registers a subscriber and sends it the current state. The snapshot is taken after registration so an
+     * update racing with the subscription is delivered either way, and on the dispatcher of the task so it
+     * cannot reach the subscriber after a newer event.
+     */
+    public SseEmitter subscribe(String taskId, Supplier<TaskProgress> snapshot) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        subscribers.compute(taskId, (id, emitters) -> {
+            List<SseEmitter> list = emitters != null ? emitters : new CopyOnWriteArrayList<>();
+            list.add(emitter);
+            return list;
+        });
+        emitter.onCompletion(() -> unsubscribe(taskId, emitter));
+        emitter.onTimeout(() -> unsubscribe(taskId, emitter));
+        emitter.onError(e -> unsubscribe(taskId, emitter));
+        dispatcher(taskId).execute(() -> sendSnapshot(taskId, emitter, snapshot));
+        return emitter;
+    }
+
+    public void publish(TaskProgress progress) {
+        String taskId = progress.getId();
+        if (!subscribers.containsKey(taskId)) {
+            return;
+        }
+        if (pending.put(taskId, progress) == null) {
+            dispatcher(taskId).execute(() -> dispatch(taskId));
+        }
+    }
+
+    /**
+     * Ends the streams of a task that is gone, after the events already pending for it.
+     */
+    public void complete(String taskId) {
+        if (!subscribers.containsKey(taskId)) {
+            return;
+        }
+        dispatcher(taskId).execute(() -> {
+            List<SseEmitter> emitters = subscribers.remove(taskId);
+            if (emitters != null) {
+                emitters.forEach(SseEmitter::complete);
+            }
+        });
+    }
+
+    /**
+     * The tasks with subscribers, as a live view.
+     */
+    public Set<String> getSubscribedTaskIds() {
+        return Collections.unmodifiableSet(subscribers.keySet());
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(List::size).sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService dispatcher : dispatchers) {
+            dispatcher.shutdownNow();
+        }
+        subscribers.values().forEach(emitters -> emitters.forEach(SseEmitter::complete));
+    }
+
+    private ExecutorService dispatcher(String taskId) {
+        return dispatchers[Math.floorMod(taskId.hashCode(), dispatchers.length)];
+    }
+
+    private void sendSnapshot(String taskId, SseEmitter emitter, Supplier<TaskProgress> snapshot) {
+        try {
+            TaskProgress current = snapshot.get();
+            send(emitter, serialize(current));
+            if (isTerminal(current)) {
+                emitter.complete();
+                unsubscribe(taskId, emitter);
+            }
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(e);
+        } catch (RuntimeException e) {
+            // the task was deleted since the subscription
+            emitter.complete();
+            unsubscribe(taskId, emitter);
+        }
+    }
+
+    private void dispatch(String taskId) {
+        TaskProgress progress = pending.remove(taskId);
+        List<SseEmitter> emitters = subscribers.get(taskId);
+        if (progress == null || emitters == null) {
+            return;
+        }
+        String data;
+        try {
+            data = serialize(progress);
+        } catch (IOException e) {
+            logger.error("Cannot serialize progress of task {}", taskId, e);
+            return;
+        }
+        boolean terminal = isTerminal(progress);
+        for (SseEmitter emitter : emitters) {
+            try {
+                send(emitter, data);
+                if (terminal) {
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+            }
+        }
+        if (terminal) {
+            subscribers.remove(taskId, emitters);
+        }
+    }
+
+    private void unsubscribe(String taskId, SseEmitter emitter) {
+        subscribers.computeIfPresent(taskId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+
+    private String serialize(TaskProgress progress) throws JsonProcessingException {
+        return objectMapper.writeValueAsString(progress);
+    }
+
+    private static void send(SseEmitter emitter, String data) throws IOException {
+        emitter.send(SseEmitter.event().name(EVENT_NAME).data(data));
+    }
+
+    private static boolean isTerminal(TaskProgress progress) {
+        switch (progress.getStatus()) {
+            case COMPLETED:
+            case CANCELED:
+            case FAILED:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
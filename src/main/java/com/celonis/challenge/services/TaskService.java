@@ -1,68 +1,857 @@
 package com.celonis.challenge.services;
 
-import com.celonis.challenge.exceptions.InternalException;
+import com.celonis.challenge.config.ExecutionConfiguration;
+import com.celonis.challenge.exceptions.ConflictException;
 import com.celonis.challenge.exceptions.NotFoundException;
 import com.celonis.challenge.model.ProjectGenerationTask;
 import com.celonis.challenge.model.ProjectGenerationTaskRepository;
+import com.celonis.challenge.model.TaskCursor;
+import com.celonis.challenge.api.model.BulkTaskRequest;
+import com.celonis.challenge.api.model.BulkTaskResult;
+import com.celonis.challenge.api.model.TaskCount;
+import com.celonis.challenge.api.model.TaskProgress;
+import com.celonis.challenge.model.TaskMapper;
+import com.celonis.challenge.model.TaskProgressView;
+import com.celonis.challenge.model.TaskStateView;
+import com.celonis.challenge.model.TaskStatus;
+import com.celonis.challenge.model.TaskType;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class TaskService {
 
+    /**
+     * Compare-and-set attempts before giving up on a task other writers keep changing.
+     */
+    private static final int MAX_TRANSITION_ATTEMPTS = 10;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
     private final ProjectGenerationTaskRepository projectGenerationTaskRepository;
 
     private final FileService fileService;
-    
+
+    private final ThreadPoolTaskExecutor taskExecutor;
+
+    private final CounterScheduler counterScheduler;
+
+    private final ProgressRegistry progressRegistry;
+
+    private final TaskEventHub taskEventHub;
+
+    private final IdempotencyCache idempotencyCache;
+
+    private final BulkTransitions bulkTransitions;
+
+    private final WorkQueue workQueue;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, CancellationToken> runningGenerations = new ConcurrentHashMap<>();
+
+    /**
+     * Last progress polled of the subscribed tasks running elsewhere, so only changes are published.
+     */
+    private final Map<String, TaskProgress> polledProgress = new ConcurrentHashMap<>();
+
+    private final int maxBulkIds;
+
+    private final int maxBatchSize;
+
+    private final int maxBulkTasks;
+
+    private final int defaultPageSize;
+
+    private final int maxPageSize;
+
+    private final int exportFetchSize;
+
+    private final int maxCounters;
+
     public TaskService(ProjectGenerationTaskRepository projectGenerationTaskRepository,
-                       FileService fileService) {
+                       FileService fileService,
+                       @Qualifier(ExecutionConfiguration.TASK_EXECUTOR) ThreadPoolTaskExecutor taskExecutor,
+                       CounterScheduler counterScheduler,
+                       ProgressRegistry progressRegistry,
+                       TaskEventHub taskEventHub,
+                       IdempotencyCache idempotencyCache,
+                       BulkTransitions bulkTransitions,
+                       WorkQueue workQueue,
+                       MeterRegistry meterRegistry,
+                       @Value("${challenge.progress.max-bulk-ids:1000}") int maxBulkIds,
+                       @Value("${challenge.batch.max-size:1000}") int maxBatchSize,
+                       @Value("${challenge.bulk.max-tasks:10000}") int maxBulkTasks,
+                       @Value("${challenge.listing.default-limit:100}") int defaultPageSize,
+                       @Value("${challenge.listing.max-limit:1000}") int maxPageSize,
+                       @Value("${challenge.export.fetch-size:500}") int exportFetchSize,
+                       @Value("${challenge.work.max-counters:100000}") int maxCounters) {
         this.projectGenerationTaskRepository = projectGenerationTaskRepository;
         this.fileService = fileService;
+        this.taskExecutor = taskExecutor;
+        this.counterScheduler = counterScheduler;
+        this.progressRegistry = progressRegistry;
+        this.taskEventHub = taskEventHub;
+        this.idempotencyCache = idempotencyCache;
+        this.bulkTransitions = bulkTransitions;
+        this.workQueue = workQueue;
+        this.maxBulkIds = maxBulkIds;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBulkTasks = maxBulkTasks;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+        this.exportFetchSize = exportFetchSize;
+        this.maxCounters = maxCounters;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("tasks.running", runningGenerations, Map::size)
+                .tag("type", TaskType.PROJECT_GENERATION.name())
+                .register(meterRegistry);
+        Gauge.builder("tasks.running", counterScheduler, CounterScheduler::getActiveCounters)
+                .tag("type", TaskType.COUNTER.name())
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        workQueue.start(new LocalWorker());
+    }
+
+    /**
+     * Returns one keyset page of tasks in (creationDate, id) order. Every page costs the same index range
+     * scan no matter how deep the client has paged, since no rows are skipped with an offset.
+     */
+    public Slice<ProjectGenerationTask> listTasks(TaskStatus status, TaskType type, String cursor, Integer limit) {
+        int pageSize = limit != null ? limit : defaultPageSize;
+        if (pageSize < 1 || pageSize > maxPageSize) {
+            throw new IllegalArgumentException("limit must be between 1 and " + maxPageSize);
+        }
+        TaskCursor after = cursor != null ? TaskCursor.decode(cursor) : null;
+        List<ProjectGenerationTask> rows = projectGenerationTaskRepository.findPage(status, type, after, pageSize + 1);
+        boolean hasNext = rows.size() > pageSize;
+        return new SliceImpl<>(hasNext ? rows.subList(0, pageSize) : rows, PageRequest.of(0, pageSize), hasNext);
     }
 
-    public List<ProjectGenerationTask> listTasks() {
-        return projectGenerationTaskRepository.findAll();
+    /**
+     * Creates the task once per idempotency key of the client: a retry with the same key returns the task
+     * created the first time.
+     */
+    public ProjectGenerationTask createTask(ProjectGenerationTask projectGenerationTask, String client,
+                                            String idempotencyKey) {
+        List<Object> fingerprint = Arrays.asList(projectGenerationTask.getName(), projectGenerationTask.getType(),
+                projectGenerationTask.getX(), projectGenerationTask.getY());
+        return idempotencyCache.execute(client, "create", idempotencyKey, fingerprint,
+                () -> createTask(projectGenerationTask));
     }
 
     public ProjectGenerationTask createTask(ProjectGenerationTask projectGenerationTask) {
+        prepareNew(projectGenerationTask);
+        return projectGenerationTaskRepository.save(projectGenerationTask);
+    }
+
+    /**
+     * Creates all tasks in one transaction. Ids are generated in memory, so the inserts go out in JDBC
+     * batches at commit. Nothing is created if any task is invalid.
+     */
+    @Transactional
+    public List<ProjectGenerationTask> createTasks(List<ProjectGenerationTask> tasks) {
+        if (tasks.isEmpty() || tasks.size() > maxBatchSize) {
+            throw new IllegalArgumentException("A batch must hold between 1 and " + maxBatchSize + " tasks");
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                prepareNew(tasks.get(i));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Task " + i + ": " + e.getMessage(), e);
+            }
+        }
+        return projectGenerationTaskRepository.saveAll(tasks);
+    }
+
+    private void prepareNew(ProjectGenerationTask projectGenerationTask) {
         projectGenerationTask.setId(null);
         projectGenerationTask.setCreationDate(new Date());
-        return projectGenerationTaskRepository.save(projectGenerationTask);
+        if (projectGenerationTask.getType() == null) {
+            projectGenerationTask.setType(TaskType.PROJECT_GENERATION);
+        }
+        if (projectGenerationTask.getType() == TaskType.COUNTER) {
+            validateCounter(projectGenerationTask);
+        }
+        projectGenerationTask.setStatus(TaskStatus.PENDING);
+        projectGenerationTask.setStartedAt(null);
+        projectGenerationTask.setFinishedAt(null);
+        projectGenerationTask.setCanceledAt(null);
+        projectGenerationTask.setStorageLocation(null);
+        projectGenerationTask.setCurrent(null);
+        projectGenerationTask.setProgressPct(null);
+        projectGenerationTask.setLeaseOwner(null);
+        projectGenerationTask.setLeaseExpiresAt(null);
     }
 
+    /**
+     * Returns the task with its live progress taken from the registry, which may be ahead of the database.
+     */
     public ProjectGenerationTask getTask(String taskId) {
-        return get(taskId);
+        ProgressRegistry.Progress progress = progressRegistry.get(taskId);
+        ProjectGenerationTask task = get(taskId);
+        if (progress != null && task.getStatus() == progress.getStatus()) {
+            task.setCurrent(progress.getCurrent());
+            task.setProgressPct(progress.getProgressPct());
+        }
+        return task;
+    }
+
+    /**
+     * Hands every task matching the optional filters to {@code sink} in (creationDate, id) order, without
+     * ever holding more than one fetch of rows in memory.
+     */
+    @Transactional(readOnly = true)
+    public void exportTasks(TaskStatus status, TaskType type, Consumer<ProjectGenerationTask> sink) {
+        try (Stream<ProjectGenerationTask> tasks =
+                     projectGenerationTaskRepository.streamAll(status, type, exportFetchSize)) {
+            tasks.forEach(sink);
+        }
+    }
+
+    /**
+     * Resolves the progress of many tasks at once: running tasks are answered from the registry and all the
+     * others with a single projection query. Unknown ids are skipped; the order of the request is kept.
+     */
+    public List<TaskProgress> getProgress(List<String> taskIds) {
+        Set<String> ids = new LinkedHashSet<>(taskIds);
+        if (ids.size() > maxBulkIds) {
+            throw new IllegalArgumentException("At most " + maxBulkIds + " task ids can be requested at once");
+        }
+        Map<String, TaskProgress> found = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String id : ids) {
+            ProgressRegistry.Progress progress = progressRegistry.get(id);
+            if (progress != null) {
+                found.put(id, TaskMapper.toProgressDto(id, progress.getStatus(), progress.getCurrent(),
+                        progress.getProgressPct()));
+            } else {
+                misses.add(id);
+            }
+        }
+        if (!misses.isEmpty()) {
+            projectGenerationTaskRepository.findProgressByIdIn(misses)
+                    .forEach(view -> found.put(view.getId(), TaskMapper.toProgressDto(view)));
+        }
+        List<TaskProgress> result = new ArrayList<>(found.size());
+        for (String id : ids) {
+            TaskProgress progress = found.get(id);
+            if (progress != null) {
+                result.add(progress);
+            }
+        }
+        return result;
+    }
+
+    public List<TaskCount> countTasks() {
+        return projectGenerationTaskRepository.countByTypeAndStatus().stream()
+                .map(TaskMapper::toCountDto)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Opens an SSE stream of progress events for the task, closed once the task reaches a final state.
+     */
+    public SseEmitter subscribe(String taskId) {
+        get(taskId);
+        return taskEventHub.subscribe(taskId, () -> TaskMapper.toProgressDto(getTask(taskId)));
+    }
+
+    /**
+     * Publishes the progress of subscribed tasks not running on this node, read from their rows whenever it
+     * changed since the last poll: the node running a task only notifies its own subscribers. The streams of
+     * tasks deleted meanwhile are ended.
+     */
+    @Scheduled(fixedDelayString = "${challenge.events.poll-interval-ms:1000}")
+    public void publishRemoteProgress() {
+        Set<String> local = localTaskIds();
+        List<String> remote = new ArrayList<>();
+        for (String taskId : taskEventHub.getSubscribedTaskIds()) {
+            if (!local.contains(taskId)) {
+                remote.add(taskId);
+            }
+        }
+        polledProgress.keySet().retainAll(remote);
+        for (int from = 0; from < remote.size(); from += maxBulkIds) {
+            List<String> chunk = remote.subList(from, Math.min(from + maxBulkIds, remote.size()));
+            Set<String> gone = new HashSet<>(chunk);
+            for (TaskProgressView view : projectGenerationTaskRepository.findProgressByIdIn(chunk)) {
+                gone.remove(view.getId());
+                TaskProgress progress = TaskMapper.toProgressDto(view);
+                if (!progress.equals(polledProgress.put(view.getId(), progress))) {
+                    taskEventHub.publish(progress);
+                }
+            }
+            gone.forEach(taskEventHub::complete);
+        }
     }
 
     public ProjectGenerationTask update(String taskId, ProjectGenerationTask projectGenerationTask) {
-        ProjectGenerationTask existing = get(taskId);
-        existing.setCreationDate(projectGenerationTask.getCreationDate());
-        existing.setName(projectGenerationTask.getName());
-        return projectGenerationTaskRepository.save(existing);
+        for (int attempt = 0; attempt < MAX_TRANSITION_ATTEMPTS; attempt++) {
+            TaskStateView state = state(taskId);
+            // the creation date is the keyset sort key and stays as the task was created
+            if (projectGenerationTaskRepository.rename(taskId, state.getVersion(),
+                    projectGenerationTask.getName()) == 1) {
+                return getTask(taskId);
+            }
+        }
+        throw concurrentModification(taskId);
     }
 
+    /**
+     * Deletes a task and its result. A task running on this node is stopped first; one running on another node
+     * is stopped there the next time that node renews its leases.
+     */
     public void delete(String taskId) {
-        projectGenerationTaskRepository.deleteById(taskId);
+        ProjectGenerationTask task = get(taskId);
+        if (task.getStatus() == TaskStatus.RUNNING) {
+            stopLocally(taskId);
+        }
+        projectGenerationTaskRepository.delete(task);
+        fileService.deleteResult(task);
+        taskEventHub.complete(taskId);
+    }
+
+    /**
+     * Executes the task once per idempotency key of the client: a retry with the same key succeeds without
+     * starting another execution, even though the task is no longer PENDING.
+     */
+    public void executeTask(String taskId, String client, String idempotencyKey) {
+        idempotencyCache.execute(client, "execute:" + taskId, idempotencyKey, null, () -> {
+            executeTask(taskId);
+            return null;
+        });
     }
 
+    /**
+     * Records the PENDING -> RUNNING transition, which queues the task for whichever node claims it first; the
+     * claiming node runs it on its execution pool (project generation) or counter wheel (counters). The calling
+     * request thread returns immediately.
+     * <p>
+     * The transition is a compare-and-set on the version of the row: of any number of concurrent calls exactly
+     * one starts the task and the others get a conflict. A call losing to an unrelated change, such as a
+     * rename, reads the row again and retries.
+     */
     public void executeTask(String taskId) {
-        URL url = Thread.currentThread().getContextClassLoader().getResource("challenge.zip");
-        if (url == null) {
-            throw new InternalException("Zip file not found");
+        for (int attempt = 0; attempt < MAX_TRANSITION_ATTEMPTS; attempt++) {
+            TaskStateView state = state(taskId);
+            if (state.getStatus() != TaskStatus.PENDING) {
+                throw new ConflictException("Task " + taskId + " is already " + state.getStatus());
+            }
+            boolean started = state.getType() == TaskType.COUNTER
+                    ? executeCounter(state)
+                    : executeProjectGeneration(state);
+            if (started) {
+                return;
+            }
+        }
+        throw concurrentModification(taskId);
+    }
+
+    /**
+     * Starts many tasks with one batch of conditional updates, queueing them for the nodes to claim.
+     */
+    public List<BulkTaskResult> executeTasks(BulkTaskRequest request) {
+        List<String> ids = resolveBulkIds(request, TaskStatus.PENDING);
+        Map<String, TaskStateView> states = loadStates(ids);
+        Map<String, BulkTaskResult.OutcomeEnum> outcomes = new HashMap<>();
+        List<String> candidates = selectCandidates(ids, states, TaskStatus.PENDING, outcomes);
+        if (candidates.isEmpty()) {
+            return toBulkResults(ids, outcomes);
+        }
+
+        boolean[] started = bulkTransitions.start(candidates, new Date());
+        for (int i = 0; i < candidates.size(); i++) {
+            String taskId = candidates.get(i);
+            if (!started[i]) {
+                outcomes.put(taskId, BulkTaskResult.OutcomeEnum.CONFLICT);
+                continue;
+            }
+            TaskStateView state = states.get(taskId);
+            if (state.getType() == TaskType.COUNTER) {
+                taskEventHub.publish(TaskMapper.toProgressDto(taskId, TaskStatus.RUNNING, state.getX(),
+                        progressPct(state.getX(), state.getY(), state.getX())));
+            } else {
+                taskEventHub.publish(TaskMapper.toProgressDto(taskId, TaskStatus.RUNNING, null, null));
+            }
+            outcomes.put(taskId, BulkTaskResult.OutcomeEnum.APPLIED);
+        }
+        workQueue.signal();
+        return toBulkResults(ids, outcomes);
+    }
+
+    /**
+     * Cancels many running tasks with one batch of conditional updates, then stops their counters and copies.
+     */
+    public List<BulkTaskResult> cancelTasks(BulkTaskRequest request) {
+        List<String> ids = resolveBulkIds(request, TaskStatus.RUNNING);
+        Map<String, TaskStateView> states = loadStates(ids);
+        Map<String, BulkTaskResult.OutcomeEnum> outcomes = new HashMap<>();
+        List<String> candidates = selectCandidates(ids, states, TaskStatus.RUNNING, outcomes);
+        if (candidates.isEmpty()) {
+            return toBulkResults(ids, outcomes);
+        }
+
+        Map<String, ProgressRegistry.Progress> progress = new HashMap<>();
+        for (String taskId : candidates) {
+            ProgressRegistry.Progress p = progressRegistry.get(taskId);
+            if (p != null) {
+                progress.put(taskId, p);
+            }
+        }
+        Date now = new Date();
+        boolean[] canceled = bulkTransitions.cancel(candidates, progress, now);
+        for (int i = 0; i < candidates.size(); i++) {
+            String taskId = candidates.get(i);
+            if (!canceled[i]) {
+                outcomes.put(taskId, BulkTaskResult.OutcomeEnum.CONFLICT);
+                continue;
+            }
+            TaskStateView state = states.get(taskId);
+            stopLocally(taskId);
+            recordExecution(state.getType(), TaskStatus.CANCELED, state.getStartedAt(), now);
+            ProgressRegistry.Progress p = progress.get(taskId);
+            taskEventHub.publish(TaskMapper.toProgressDto(taskId, TaskStatus.CANCELED,
+                    p != null ? p.getCurrent() : null, p != null ? p.getProgressPct() : null));
+            outcomes.put(taskId, BulkTaskResult.OutcomeEnum.APPLIED);
+        }
+        return toBulkResults(ids, outcomes);
+    }
+
+    /**
+     * The ids a bulk request applies to: the given ids, or the oldest tasks matching its filter, which looks at
+     * tasks in {@code defaultStatus} unless it names a status itself.
+     */
+    private List<String> resolveBulkIds(BulkTaskRequest request, TaskStatus defaultStatus) {
+        boolean hasFilter = request.getType() != null || request.getStatus() != null
+                || request.getCreatedBefore() != null;
+        List<String> ids = request.getIds();
+        if (ids != null && !ids.isEmpty()) {
+            if (hasFilter) {
+                throw new IllegalArgumentException("Pass either ids or a filter, not both");
+            }
+            Set<String> unique = new LinkedHashSet<>(ids);
+            if (unique.size() > maxBulkTasks) {
+                throw new IllegalArgumentException("At most " + maxBulkTasks + " tasks can be changed at once");
+            }
+            return new ArrayList<>(unique);
+        }
+        if (!hasFilter) {
+            throw new IllegalArgumentException("Either ids or a filter is required");
+        }
+        TaskStatus status = request.getStatus() != null
+                ? TaskStatus.valueOf(request.getStatus().getValue()) : defaultStatus;
+        TaskType type = request.getType() != null ? TaskType.valueOf(request.getType().getValue()) : null;
+        Date createdBefore = request.getCreatedBefore() != null
+                ? Date.from(request.getCreatedBefore().toInstant()) : null;
+        return projectGenerationTaskRepository.findIds(status, type, createdBefore, maxBulkTasks);
+    }
+
+    private Map<String, TaskStateView> loadStates(List<String> ids) {
+        Map<String, TaskStateView> states = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += maxBulkIds) {
+            projectGenerationTaskRepository.findStateByIdIn(ids.subList(from, Math.min(from + maxBulkIds, ids.size())))
+                    .forEach(state -> states.put(state.getId(), state));
+        }
+        return states;
+    }
+
+    private static List<String> selectCandidates(List<String> ids, Map<String, TaskStateView> states,
+                                                 TaskStatus required,
+                                                 Map<String, BulkTaskResult.OutcomeEnum> outcomes) {
+        List<String> candidates = new ArrayList<>();
+        for (String id : ids) {
+            TaskStateView state = states.get(id);
+            if (state == null) {
+                outcomes.put(id, BulkTaskResult.OutcomeEnum.NOT_FOUND);
+            } else if (state.getStatus() != required) {
+                outcomes.put(id, BulkTaskResult.OutcomeEnum.CONFLICT);
+            } else {
+                candidates.add(id);
+            }
+        }
+        return candidates;
+    }
+
+    private static List<BulkTaskResult> toBulkResults(List<String> ids,
+                                                      Map<String, BulkTaskResult.OutcomeEnum> outcomes) {
+        List<BulkTaskResult> results = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            results.add(new BulkTaskResult().id(id).outcome(outcomes.get(id)));
+        }
+        return results;
+    }
+
+    private boolean executeProjectGeneration(TaskStateView state) {
+        // a missing template fails the request rather than the claim
+        FileService.projectArchive();
+        String taskId = state.getId();
+        Date now = new Date();
+        if (projectGenerationTaskRepository.markRunning(taskId, state.getVersion(), now, null, null, null,
+                now) == 0) {
+            return false;
+        }
+        taskEventHub.publish(TaskMapper.toProgressDto(taskId, TaskStatus.RUNNING, null, null));
+        workQueue.signal();
+        return true;
+    }
+
+    /**
+     * Runs a project generation within the request, on this node: the archive is built straight into the
+     * response and nothing is stored, so the task completes without a result to download later. A cancel stops the
+     * stream within one chunk and the client gets a truncated archive.
+     */
+    public void generateTask(String taskId, HttpServletResponse response) throws IOException {
+        URL url = FileService.projectArchive();
+        CancellationToken token = startStreamedGeneration(taskId);
+        try {
+            fileService.writeArchive(taskId, url, response, token);
+            finish(taskId, TaskStatus.COMPLETED, null, null);
+        } catch (CancellationException e) {
+            logger.info("Streamed generation of task {} was canceled", taskId);
+            if (resetUncommitted(response)) {
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Streamed generation of task {} failed", taskId, e);
+            finish(taskId, TaskStatus.FAILED, null, null);
+            if (resetUncommitted(response)) {
+                throw e;
+            }
+        } finally {
+            runningGenerations.remove(taskId, token);
+        }
+    }
+
+    /**
+     * Clears a streamed response that failed before anything was sent, so the failure can still be answered
+     * with an error; returns false once the body started. Then nothing can be reported anymore and the client
+     * tells from the archive lacking its central directory.
+     */
+    private static boolean resetUncommitted(HttpServletResponse response) {
+        if (response.isCommitted()) {
+            return false;
+        }
+        response.reset();
+        return true;
+    }
+
+    /**
+     * The PENDING -> RUNNING transition of a streamed generation. The token is registered before the
+     * transition so a cancel right after it always finds it.
+     */
+    private CancellationToken startStreamedGeneration(String taskId) {
+        for (int attempt = 0; attempt < MAX_TRANSITION_ATTEMPTS; attempt++) {
+            TaskStateView state = state(taskId);
+            if (state.getType() != TaskType.PROJECT_GENERATION) {
+                throw new IllegalArgumentException("Only project generation tasks can be generated");
+            }
+            if (state.getStatus() != TaskStatus.PENDING) {
+                throw new ConflictException("Task " + taskId + " is already " + state.getStatus());
+            }
+            CancellationToken token = new CancellationToken();
+            runningGenerations.put(taskId, token);
+            if (projectGenerationTaskRepository.markRunning(taskId, state.getVersion(), new Date(), null, null,
+                    workQueue.getNodeId(), workQueue.leaseExpiry()) == 1) {
+                taskEventHub.publish(TaskMapper.toProgressDto(taskId, TaskStatus.RUNNING, null, null));
+                return token;
+            }
+            runningGenerations.remove(taskId, token);
+        }
+        throw concurrentModification(taskId);
+    }
+
+    /**
+     * Hands a project generation to the execution pool unless it already runs here; returns false if the pool
+     * is saturated.
+     */
+    private boolean submitProjectGeneration(String taskId, URL url) {
+        CancellationToken token = new CancellationToken();
+        if (runningGenerations.putIfAbsent(taskId, token) != null) {
+            return true;
+        }
+        try {
+            taskExecutor.execute(() -> runProjectGeneration(taskId, url, token));
+            return true;
+        } catch (TaskRejectedException e) {
+            runningGenerations.remove(taskId, token);
+            return false;
+        }
+    }
+
+    private boolean executeCounter(TaskStateView state) {
+        String taskId = state.getId();
+        int x = state.getX();
+        float progressPct = progressPct(x, state.getY(), x);
+        Date now = new Date();
+        if (projectGenerationTaskRepository.markRunning(taskId, state.getVersion(), now, x, progressPct, null,
+                now) == 0) {
+            return false;
         }
+        taskEventHub.publish(TaskMapper.toProgressDto(taskId, TaskStatus.RUNNING, x, progressPct));
+        workQueue.signal();
+        return true;
+    }
+
+    /**
+     * Starts a claimed counter on the wheel, from its last checkpoint if it ran before.
+     */
+    private void startCounter(TaskStateView state) {
+        String taskId = state.getId();
+        int x = state.getX();
+        int y = state.getY();
+        int from = state.getCurrent() != null ? Math.max(x, Math.min(y, state.getCurrent())) : x;
+        progressRegistry.update(taskId, TaskStatus.RUNNING, from, progressPct(x, y, from));
+        try {
+            counterScheduler.schedule(taskId, from, y, new CounterProgressListener(x, y));
+        } catch (IllegalStateException e) {
+            // claimed back after its lease ran out while it kept counting here
+            logger.debug("Counter {} is already running on this node", taskId);
+        }
+    }
+
+    /**
+     * Stops a running task: counters are taken off the wheel, project generations stop copying within one
+     * chunk and drop their partial output. A task running on another node is stopped there the next time that
+     * node renews its leases.
+     */
+    public void cancelTask(String taskId) {
+        for (int attempt = 0; attempt < MAX_TRANSITION_ATTEMPTS; attempt++) {
+            TaskStateView state = state(taskId);
+            if (state.getStatus() != TaskStatus.RUNNING) {
+                throw new ConflictException("Task " + taskId + " is not running");
+            }
+            ProgressRegistry.Progress progress = progressRegistry.get(taskId);
+            Integer current = progress != null ? progress.getCurrent() : null;
+            Float progressPct = progress != null ? progress.getProgressPct() : null;
+            Date now = new Date();
+            if (projectGenerationTaskRepository.markCanceled(taskId, state.getVersion(), now, current,
+                    progressPct) == 0) {
+                continue;
+            }
+            stopLocally(taskId);
+            recordExecution(state.getType(), TaskStatus.CANCELED, state.getStartedAt(), now);
+            taskEventHub.publish(TaskMapper.toProgressDto(taskId, TaskStatus.CANCELED, current, progressPct));
+            return;
+        }
+        throw concurrentModification(taskId);
+    }
+
+    /**
+     * Takes a counter off the wheel or cancels the token of a project generation, if the task runs on this node.
+     */
+    private void stopLocally(String taskId) {
+        counterScheduler.cancel(taskId);
+        progressRegistry.remove(taskId);
+        CancellationToken token = runningGenerations.get(taskId);
+        if (token != null) {
+            token.cancel();
+        }
+    }
+
+    private void runProjectGeneration(String taskId, URL url, CancellationToken token) {
         try {
-            fileService.storeResult(taskId, url);
+            fileService.storeResult(taskId, url, token);
+            finish(taskId, TaskStatus.COMPLETED, null, null);
+        } catch (CancellationException e) {
+            logger.info("Execution of task {} was canceled", taskId);
         } catch (Exception e) {
-            throw new InternalException(e);
+            logger.error("Execution of task {} failed", taskId, e);
+            finish(taskId, TaskStatus.FAILED, null, null);
+        } finally {
+            runningGenerations.remove(taskId, token);
         }
     }
 
+    /**
+     * Ends a RUNNING task with the given status. Does nothing if the task is not running anymore, e.g. because
+     * it was canceled meanwhile, or if another node claimed it; the compare-and-set makes sure only one of the
+     * transitions wins.
+     */
+    private void finish(String taskId, TaskStatus status, Integer current, Float progressPct) {
+        for (int attempt = 0; attempt < MAX_TRANSITION_ATTEMPTS; attempt++) {
+            Optional<TaskStateView> state = projectGenerationTaskRepository.findStateById(taskId);
+            if (!state.isPresent() || state.get().getStatus() != TaskStatus.RUNNING
+                    || !Objects.equals(state.get().getLeaseOwner(), workQueue.getNodeId())) {
+                return;
+            }
+            Date now = new Date();
+            if (projectGenerationTaskRepository.markFinished(taskId, state.get().getVersion(), status, now, current,
+                    progressPct) == 1) {
+                recordExecution(state.get().getType(), status, state.get().getStartedAt(), now);
+                taskEventHub.publish(TaskMapper.toProgressDto(taskId, status, current, progressPct));
+                return;
+            }
+        }
+        logger.warn("Task {} kept changing, could not mark it {}", taskId, status);
+    }
+
+    /**
+     * Records how long a task ran, from RUNNING to its final state, per type and outcome.
+     */
+    private void recordExecution(TaskType type, TaskStatus outcome, Date startedAt, Date finishedAt) {
+        if (startedAt == null || finishedAt == null) {
+            return;
+        }
+        Timer.builder("tasks.execution")
+                .description("Duration of task executions")
+                .tag("type", type.name())
+                .tag("outcome", outcome.name())
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(finishedAt.getTime() - startedAt.getTime(), TimeUnit.MILLISECONDS);
+    }
+
+    private static void validateCounter(ProjectGenerationTask task) {
+        if (task.getX() == null || task.getY() == null) {
+            throw new IllegalArgumentException("COUNTER tasks require x and y");
+        }
+        if (task.getX() > task.getY()) {
+            throw new IllegalArgumentException("x must not be greater than y");
+        }
+    }
+
+    private static float progressPct(int x, int y, int current) {
+        return y == x ? 100f : (current - x) * 100f / (y - x);
+    }
+
+    private TaskStateView state(String taskId) {
+        return projectGenerationTaskRepository.findStateById(taskId).orElseThrow(NotFoundException::new);
+    }
+
+    private static ConflictException concurrentModification(String taskId) {
+        return new ConflictException("Task " + taskId + " is being modified concurrently, retry later");
+    }
+
+    /**
+     * The counters on the wheel and the project generations running on this node.
+     */
+    private Set<String> localTaskIds() {
+        Set<String> running = new LinkedHashSet<>(counterScheduler.getTaskIds());
+        running.addAll(runningGenerations.keySet());
+        return running;
+    }
+
     private ProjectGenerationTask get(String taskId) {
         Optional<ProjectGenerationTask> projectGenerationTask = projectGenerationTaskRepository.findById(taskId);
         return projectGenerationTask.orElseThrow(NotFoundException::new);
     }
+
+    /**
+     * Runs the tasks this node claims from the work queue.
+     */
+    private class LocalWorker implements WorkQueue.Worker {
+
+        @Override
+        public int capacity(TaskType type) {
+            if (type == TaskType.COUNTER) {
+                return maxCounters - counterScheduler.getActiveCounters();
+            }
+            return taskExecutor.getMaxPoolSize() - taskExecutor.getActiveCount()
+                    + taskExecutor.getThreadPoolExecutor().getQueue().remainingCapacity();
+        }
+
+        @Override
+        public void start(List<String> taskIds) {
+            URL url = null;
+            for (TaskStateView state : loadStates(taskIds).values()) {
+                if (state.getStatus() != TaskStatus.RUNNING) {
+                    continue;
+                }
+                try {
+                    if (state.getType() == TaskType.COUNTER) {
+                        startCounter(state);
+                    } else {
+                        if (url == null) {
+                            url = FileService.projectArchive();
+                        }
+                        if (!submitProjectGeneration(state.getId(), url)) {
+                            workQueue.release(state.getId());
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Could not start claimed task {}", state.getId(), e);
+                    workQueue.release(state.getId());
+                }
+            }
+        }
+
+        @Override
+        public Collection<String> running() {
+            return localTaskIds();
+        }
+
+        @Override
+        public void stop(Collection<String> taskIds) {
+            for (String taskId : taskIds) {
+                stopLocally(taskId);
+            }
+        }
+    }
+
+    private class CounterProgressListener implements CounterScheduler.Listener {
+
+        private final int x;
+
+        private final int y;
+
+        private CounterProgressListener(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public void onAdvance(String taskId, int current) {
+            float progressPct = progressPct(x, y, current);
+            progressRegistry.update(taskId, TaskStatus.RUNNING, current, progressPct);
+            taskEventHub.publish(TaskMapper.toProgressDto(taskId, TaskStatus.RUNNING, current, progressPct));
+        }
+
+        @Override
+        public void onComplete(String taskId, int current) {
+            progressRegistry.remove(taskId);
+            finish(taskId, TaskStatus.COMPLETED, current, 100f);
+        }
+    }
 }
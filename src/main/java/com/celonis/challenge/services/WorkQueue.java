@@ -0,0 +1,513 @@
+package com.celonis.challenge.services;
+
+import com.celonis.challenge.model.TaskStatus;
+import com.celonis.challenge.model.TaskType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Work queue kept in the task table and shared by all nodes running against the same database.
+ * <p>
+ * A RUNNING task can be claimed once its lease has expired. Starting a task stores the time it was queued as
+ * its expiry, so new tasks are claimable right away and the oldest are claimed first. Every node polls for
+ * claimable tasks of each type, never more than it can take on, and claims each with a conditional UPDATE
+ * that only applies while the lease is still expired: of any number of nodes racing for a task exactly one
+ * gets it. The claim bumps the version of the row, so a node that lost its lease can no longer finish the
+ * task. Owners renew all their leases with a single UPDATE well before they run out; the tasks of a node
+ * that stops doing so are claimed by the others once their leases expired. Leases are compared against the
+ * clock of each node, which are assumed to agree to well within a lease.
+ * <p>
+ * A node keeps its id across restarts in a file next to its results, so after a crash it recognises the tasks
+ * it held. The file stays locked while the node runs, and a second instance pointed at the same file fails to
+ * start rather than share the identity. Once the application is ready the node takes the tasks it held over
+ * again page by page, through the index on the lease owner, and starts the pages on a few recovery threads in
+ * parallel, without waiting for the leases to expire. Counters resume from the progress last flushed to the
+ * database.
+ */
+@Component
+public class WorkQueue {
+
+    private static final String CANDIDATES_SQL = "select id from project_generation_task where status = '"
+            + TaskStatus.RUNNING + "' and type = ? and lease_expires_at <= ? order by lease_expires_at limit ?";
+
+    private static final String CLAIM_SQL = "update project_generation_task set lease_owner = ?, "
+            + "lease_expires_at = ?, version = version + 1 where id = ? and status = '" + TaskStatus.RUNNING
+            + "' and lease_expires_at <= ?";
+
+    private static final String RENEW_SQL = "update project_generation_task set lease_expires_at = ? "
+            + "where lease_owner = ? and status = '" + TaskStatus.RUNNING + "'";
+
+    // a streamed generation registers with its worker right before it leaves PENDING
+    private static final String HELD_SQL = "select id from project_generation_task where (status = '"
+            + TaskStatus.PENDING + "' or status = '" + TaskStatus.RUNNING + "' and lease_owner = ?) and id in ";
+
+    private static final String HELD_PAGE_SQL = "select id from project_generation_task where lease_owner = ? "
+            + "and status = '" + TaskStatus.RUNNING + "' and id > ? order by id limit ?";
+
+    // the leases of a claim or take-over whose update count the driver did not report
+    private static final String LEASED_SQL = "select id from project_generation_task where lease_owner = ? "
+            + "and status = '" + TaskStatus.RUNNING + "' and lease_expires_at > ? and id in ";
+
+    private static final String TAKE_OVER_SQL = "update project_generation_task set lease_expires_at = ?, "
+            + "version = version + 1 where id = ? and lease_owner = ? and status = '" + TaskStatus.RUNNING + "'";
+
+    private static final String RELEASE_SQL = "update project_generation_task set lease_owner = null, "
+            + "lease_expires_at = started_at, version = version + 1 where id = ? and lease_owner = ? and status = '"
+            + TaskStatus.RUNNING + "'";
+
+    private static final String RELEASE_ALL_SQL = "update project_generation_task set lease_owner = null, "
+            + "lease_expires_at = started_at, version = version + 1 where lease_owner = ? and status = '"
+            + TaskStatus.RUNNING + "'";
+
+    /**
+     * The side of a node executing the claimed tasks.
+     */
+    public interface Worker {
+
+        /**
+         * How many more tasks of the type this node takes on right now.
+         */
+        int capacity(TaskType type);
+
+        /**
+         * Starts executing tasks this node has just claimed.
+         */
+        void start(List<String> taskIds);
+
+        /**
+         * The tasks currently executing on this node.
+         */
+        Collection<String> running();
+
+        /**
+         * Stops tasks this node no longer holds, because they ended elsewhere or were claimed by another node.
+         */
+        void stop(Collection<String> taskIds);
+
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String nodeId;
+
+    private final long leaseMillis;
+
+    private final long pollIntervalMillis;
+
+    private final long renewIntervalMillis;
+
+    private final int claimBatch;
+
+    private final int maxInClause;
+
+    private final int recoveryThreads;
+
+    private final Counter claimed;
+
+    private final Counter lost;
+
+    private final Counter recovered;
+
+    private final AtomicBoolean claimScheduled = new AtomicBoolean();
+
+    private ScheduledExecutorService scheduler;
+
+    private ExecutorService recovery;
+
+    private volatile Worker worker;
+
+    private volatile boolean claiming;
+
+    private FileChannel nodeIdFile;
+
+    public WorkQueue(JdbcTemplate jdbcTemplate,
+                     MeterRegistry meterRegistry,
+                     @Value("${challenge.work.node-id:}") String nodeId,
+                     @Value("${challenge.work.node-id-file:}") String nodeIdFile,
+                     @Value("${challenge.work.lease:PT30S}") Duration lease,
+                     @Value("${challenge.work.poll-interval-ms:500}") long pollIntervalMillis,
+                     @Value("${challenge.work.renew-interval-ms:10000}") long renewIntervalMillis,
+                     @Value("${challenge.work.claim-batch:100}") int claimBatch,
+                     @Value("${challenge.work.recovery-threads:4}") int recoveryThreads,
+                     @Value("${challenge.progress.max-bulk-ids:1000}") int maxInClause) {
+        if (renewIntervalMillis >= lease.toMillis()) {
+            throw new IllegalArgumentException("Leases must be renewed more often than they expire");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.nodeId = nodeId.isEmpty() ? persistentNodeId(nodeIdFile) : nodeId;
+        this.leaseMillis = lease.toMillis();
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.renewIntervalMillis = renewIntervalMillis;
+        this.claimBatch = claimBatch;
+        this.maxInClause = maxInClause;
+        this.recoveryThreads = recoveryThreads;
+        this.claimed = Counter.builder("tasks.work.claimed")
+                .description("Tasks claimed by this node")
+                .register(meterRegistry);
+        this.lost = Counter.builder("tasks.work.lost")
+                .description("Tasks this node stopped because it no longer held their lease")
+                .register(meterRegistry);
+        this.recovered = Counter.builder("tasks.work.recovered")
+                .description("Tasks this node resumed after a restart")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The id kept in {@code file}, created on first use; a fresh id every start without a file. The file is
+     * locked until shutdown, so two instances never run under the same id.
+     */
+    private String persistentNodeId(String file) {
+        if (file.isEmpty()) {
+            return UUID.randomUUID().toString();
+        }
+        Path path = Paths.get(file).toAbsolutePath();
+        try {
+            Files.createDirectories(path.getParent());
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                if (tryLock(channel) == null) {
+                    throw new IllegalStateException("Node id file " + path + " is in use by another instance, "
+                            + "give every instance its own challenge.work.node-id-file or challenge.work.node-id");
+                }
+                ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+                while (content.hasRemaining() && channel.read(content) >= 0) {
+                    // read the whole file
+                }
+                String id = new String(content.array(), 0, content.position(), StandardCharsets.UTF_8).trim();
+                if (id.isEmpty()) {
+                    id = UUID.randomUUID().toString();
+                    channel.truncate(0).write(ByteBuffer.wrap(id.getBytes(StandardCharsets.UTF_8)), 0);
+                    channel.force(true);
+                }
+                nodeIdFile = channel;
+                return id;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot keep the node id in " + path, e);
+        }
+    }
+
+    /**
+     * The lock on {@code channel}, or null if another process, or another instance in this JVM, holds it.
+     */
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts renewing the leases of the tasks {@code worker} runs. Claiming starts once the application is
+     * ready and the tasks this node held before have been taken over, see {@link #recover()}.
+     */
+    public synchronized void start(Worker worker) {
+        if (this.worker != null) {
+            throw new IllegalStateException("Work queue is already started");
+        }
+        this.worker = worker;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "work-queue");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::renew, renewIntervalMillis, renewIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        logger.info("Node {} claims work with leases of {} ms", nodeId, leaseMillis);
+    }
+
+    /**
+     * Hands the leases of all tasks still running here back to the queue, so other nodes pick them up
+     * without waiting for them to expire, and then gives up the node id.
+     */
+    @PreDestroy
+    public synchronized void shutdown() throws IOException {
+        try {
+            releaseLeases();
+        } finally {
+            if (nodeIdFile != null) {
+                nodeIdFile.close();
+            }
+        }
+    }
+
+    private void releaseLeases() {
+        if (scheduler == null) {
+            return;
+        }
+        claiming = false;
+        scheduler.shutdownNow();
+        if (recovery != null) {
+            recovery.shutdownNow();
+        }
+        try {
+            int released = jdbcTemplate.update(RELEASE_ALL_SQL, nodeId);
+            if (released > 0) {
+                logger.info("Node {} released {} tasks", nodeId, released);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Node {} could not release its tasks, they are claimed again once their leases expire",
+                    nodeId, e);
+        }
+    }
+
+    /**
+     * Resumes the tasks this node held when it went down. Runs in the background, the application serves
+     * requests meanwhile.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void recover() {
+        if (worker == null || recovery != null) {
+            return;
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        recovery = Executors.newFixedThreadPool(recoveryThreads, r -> {
+            Thread t = new Thread(r, "work-recovery-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        recovery.execute(this::recoverHeld);
+    }
+
+    private void recoverHeld() {
+        long started = System.nanoTime();
+        int total = 0;
+        try {
+            String after = "";
+            List<String> page;
+            do {
+                page = jdbcTemplate.queryForList(HELD_PAGE_SQL, String.class, nodeId, after, claimBatch);
+                if (page.isEmpty()) {
+                    break;
+                }
+                after = page.get(page.size() - 1);
+                List<String> taken = takeOver(page);
+                if (!taken.isEmpty()) {
+                    total += taken.size();
+                    recovered.increment(taken.size());
+                    recovery.execute(() -> start(taken));
+                }
+            } while (page.size() == claimBatch);
+            if (total > 0) {
+                logger.info("Node {} resumes {} interrupted tasks, found in {} ms", nodeId, total,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            }
+        } catch (RuntimeException e) {
+            logger.error("Node {} failed to resume its interrupted tasks, they are claimed again once their "
+                    + "leases expire", nodeId, e);
+        } finally {
+            // lets the queued pages run, then the threads end
+            recovery.shutdown();
+            startClaiming();
+        }
+    }
+
+    private synchronized void startClaiming() {
+        if (!scheduler.isShutdown()) {
+            claiming = true;
+            scheduler.scheduleWithFixedDelay(this::claim, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private List<String> takeOver(List<String> ids) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Timestamp expiresAt = new Timestamp(now.getTime() + leaseMillis);
+        List<Object[]> rows = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            rows.add(new Object[]{expiresAt, id, nodeId});
+        }
+        return leased(ids, jdbcTemplate.batchUpdate(TAKE_OVER_SQL, rows,
+                new int[]{Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR}), now);
+    }
+
+    /**
+     * The tasks whose lease a batched claim or take-over got for this node. A statement the driver reports no
+     * count for is looked up instead: the task is leased here if this node holds a lease on it that is still
+     * valid at {@code now}, the time the batch started.
+     */
+    private List<String> leased(List<String> ids, int[] counts, Timestamp now) {
+        List<String> leased = new ArrayList<>(ids.size());
+        List<String> unknown = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                leased.add(ids.get(i));
+            } else if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                unknown.add(ids.get(i));
+            }
+        }
+        if (!unknown.isEmpty()) {
+            List<Object> args = new ArrayList<>(unknown.size() + 2);
+            args.add(nodeId);
+            args.add(now);
+            args.addAll(unknown);
+            String sql = LEASED_SQL + "(" + String.join(", ", Collections.nCopies(unknown.size(), "?")) + ")";
+            leased.addAll(jdbcTemplate.queryForList(sql, String.class, args.toArray()));
+        }
+        return leased;
+    }
+
+    /**
+     * Hands claimed tasks to the worker. Should that fail they go back to the queue, as the single UPDATE
+     * renewing the leases of this node would otherwise keep them here without running.
+     */
+    private void start(List<String> taskIds) {
+        try {
+            worker.start(taskIds);
+        } catch (RuntimeException e) {
+            logger.error("Node {} failed to start {} claimed tasks, releasing them", nodeId, taskIds.size(), e);
+            List<Object[]> rows = new ArrayList<>(taskIds.size());
+            for (String id : taskIds) {
+                rows.add(new Object[]{id, nodeId});
+            }
+            jdbcTemplate.batchUpdate(RELEASE_SQL, rows, new int[]{Types.VARCHAR, Types.VARCHAR});
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Expiry of a lease taken now.
+     */
+    public Date leaseExpiry() {
+        return new Date(System.currentTimeMillis() + leaseMillis);
+    }
+
+    /**
+     * Claims work soon rather than at the next poll, e.g. because tasks were just queued.
+     */
+    public void signal() {
+        ScheduledExecutorService scheduler = this.scheduler;
+        if (claiming && claimScheduled.compareAndSet(false, true)) {
+            scheduler.execute(this::claim);
+        }
+    }
+
+    /**
+     * Puts a claimed task back at its place in the queue, for a node that cannot run it after all.
+     */
+    public void release(String taskId) {
+        jdbcTemplate.update(RELEASE_SQL, taskId, nodeId);
+    }
+
+    private void claim() {
+        claimScheduled.set(false);
+        try {
+            boolean more = false;
+            for (TaskType type : TaskType.values()) {
+                int wanted = Math.min(claimBatch, worker.capacity(type));
+                if (wanted > 0) {
+                    more |= claim(type, wanted);
+                }
+            }
+            if (more) {
+                signal();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Node {} failed to claim work", nodeId, e);
+        }
+    }
+
+    /**
+     * Claims up to {@code wanted} tasks of the type and starts them; returns true if there may be more.
+     */
+    private boolean claim(TaskType type, int wanted) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<String> candidates = jdbcTemplate.queryForList(CANDIDATES_SQL, String.class, type.name(), now, wanted);
+        if (candidates.isEmpty()) {
+            return false;
+        }
+        Timestamp expiresAt = new Timestamp(now.getTime() + leaseMillis);
+        List<Object[]> rows = new ArrayList<>(candidates.size());
+        for (String id : candidates) {
+            rows.add(new Object[]{nodeId, expiresAt, id, now});
+        }
+        List<String> won = leased(candidates, jdbcTemplate.batchUpdate(CLAIM_SQL, rows,
+                new int[]{Types.VARCHAR, Types.TIMESTAMP, Types.VARCHAR, Types.TIMESTAMP}), now);
+        if (!won.isEmpty()) {
+            claimed.increment(won.size());
+            start(won);
+        }
+        // a full page or one lost partly to other nodes leaves claimable tasks behind
+        return candidates.size() == wanted || won.size() < candidates.size();
+    }
+
+    /**
+     * Extends the leases of this node. Tasks running here whose lease was not renewed ended or were claimed
+     * by another node meanwhile and are stopped.
+     */
+    private void renew() {
+        try {
+            List<String> running = new ArrayList<>(worker.running());
+            jdbcTemplate.update(RENEW_SQL, leaseExpiry(), nodeId);
+            // the renewed row count says nothing about which tasks, claimed ones not started yet count too
+            Set<String> held = new HashSet<>();
+            for (int from = 0; from < running.size(); from += maxInClause) {
+                List<String> chunk = running.subList(from, Math.min(from + maxInClause, running.size()));
+                List<Object> args = new ArrayList<>(chunk.size() + 1);
+                args.add(nodeId);
+                args.addAll(chunk);
+                String sql = HELD_SQL + "(" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+                held.addAll(jdbcTemplate.queryForList(sql, String.class, args.toArray()));
+            }
+            List<String> stopped = new ArrayList<>();
+            for (String id : running) {
+                if (!held.contains(id)) {
+                    stopped.add(id);
+                }
+            }
+            if (!stopped.isEmpty()) {
+                lost.increment(stopped.size());
+                worker.stop(stopped);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Node {} failed to renew its leases", nodeId, e);
+        }
+    }
+}